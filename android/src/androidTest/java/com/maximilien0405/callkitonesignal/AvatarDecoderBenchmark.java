@@ -0,0 +1,64 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Allocation benchmark for the avatar decode pipeline against a naive full-resolution decode,
+ * for avatar sizes we typically see from backends.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AvatarDecoderBenchmark {
+
+    private static final String TAG = "AvatarDecoderBenchmark";
+    private static final int TARGET = 192;
+    private static final int[][] SIZES = { { 256, 256 }, { 1024, 1024 }, { 2048, 1536 }, { 4000, 3000 } };
+
+    @Test
+    public void sampledDecode_allocatesFarLessThanFullDecode() {
+        for (int[] size : SIZES) {
+            byte[] jpeg = jpeg(size[0], size[1]);
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            Bitmap full = android.graphics.BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+            long fullNanos = SystemClock.elapsedRealtimeNanos() - start;
+            int fullBytes = full.getAllocationByteCount();
+            full.recycle();
+
+            start = SystemClock.elapsedRealtimeNanos();
+            Bitmap sampled = AvatarDecoder.decodeSampled(jpeg, TARGET);
+            long sampledNanos = SystemClock.elapsedRealtimeNanos() - start;
+            int sampledBytes = sampled.getAllocationByteCount();
+            Bitmap circular = AvatarDecoder.cropToCircle(sampled, TARGET);
+            sampled.recycle();
+
+            Log.i(TAG, size[0] + "x" + size[1] + ": full " + fullBytes + "B in " + fullNanos / 1000 + "us, sampled "
+                + sampledBytes + "B in " + sampledNanos / 1000 + "us, output " + circular.getAllocationByteCount() + "B");
+
+            assertEquals(TARGET, circular.getWidth());
+            assertEquals(TARGET, circular.getHeight());
+            assertTrue(sampledBytes <= fullBytes);
+            if (Math.min(size[0], size[1]) >= TARGET * 4) {
+                assertTrue("sampled decode should use <1/16 of the full decode", sampledBytes * 16 <= fullBytes);
+            }
+            circular.recycle();
+        }
+    }
+
+    private static byte[] jpeg(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(40, 120, 200));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
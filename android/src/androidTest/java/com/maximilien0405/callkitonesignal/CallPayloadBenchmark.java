@@ -0,0 +1,146 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import android.content.Intent;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Push-to-service hand-off: the typed CallPayload extra against the per-field extras it replaced,
+ * each measured from the raw OneSignal JSON to the values read back out of a parcelled Intent.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallPayloadBenchmark {
+
+    private static final String TAG = "CallPayloadBenchmark";
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void payloadExtra_roundTripsAllFields() throws Exception {
+        CallPayload parsed = CallPayload.fromJson(push());
+        assertNotNull(parsed);
+        Intent intent = new Intent().putExtra(CallPayload.EXTRA, parsed);
+        CallPayload read = CallPayload.fromIntent(roundTrip(intent));
+
+        assertEquals("0190a5c2-7d3e-7abc-8def-0123456789ab", read.uuid);
+        assertTrue(read.uuidFromBackend);
+        assertEquals("user-42", read.callerId);
+        assertEquals("Ada Lovelace", read.username);
+        assertEquals("video", read.media);
+        assertEquals("https://example.com/avatar.jpg", read.profilePictureUrl);
+        assertEquals("https://example.com/decline", read.declineApiUrl);
+        assertFalse(read.cancelCall);
+    }
+
+    @Test
+    public void fromJson_validatesAndBoundsFields() throws Exception {
+        JSONObject data = new JSONObject()
+            .put("callerId", "user-42")
+            .put("media", "hologram")
+            .put("profilePictureUrl", "file:///data/data/secret.png")
+            .put("Username", repeat('x', 10_000))
+            .put("ringTimeout", "3600");
+        CallPayload payload = CallPayload.fromJson(data);
+
+        assertEquals("audio", payload.media);
+        assertNull(payload.profilePictureUrl);
+        assertEquals(CallPayload.MAX_NAME_LENGTH, payload.username.length());
+        assertFalse(payload.uuidFromBackend);
+        assertEquals(CallPayload.MAX_RING_TIMEOUT_SECONDS, payload.ringTimeoutSeconds);
+        assertNotNull(CallIds.normalize(payload.uuid));
+        assertNull(CallPayload.fromJson(new JSONObject().put("Username", "nobody")));
+    }
+
+    @Test
+    public void payloadExtra_vsPerFieldExtras() throws Exception {
+        JSONObject push = push();
+        for (int i = 0; i < WARMUP; i++) {
+            legacy(push);
+            typed(push);
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacy(push);
+        }
+        long legacyNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            typed(push);
+        }
+        long typedNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Log.i(TAG, "per push: extras " + legacyNanos / 1000.0 + "us, CallPayload " + typedNanos / 1000.0 + "us");
+        assertTrue(typedNanos > 0 && legacyNanos > 0);
+    }
+
+    // What the extension and service did before: optString per field, one extra per field
+    private static String legacy(JSONObject data) {
+        Intent intent = new Intent();
+        intent.putExtra("callerId", data.optString("callerId", null));
+        intent.putExtra("Username", data.optString("Username", ""));
+        intent.putExtra("media", data.optString("media", "audio"));
+        intent.putExtra("uuid", CallIds.newUuid());
+        intent.putExtra("profilePictureUrl", data.optString("profilePictureUrl", null));
+        intent.putExtra("notificationText", data.optString("notificationText", null));
+        intent.putExtra("notificationSummary", data.optString("notificationSummary", null));
+        intent.putExtra("declineApiUrl", data.optString("declineApiUrl", null));
+        data.optBoolean("cancelCall", false);
+
+        Intent received = roundTrip(intent);
+        received.getStringExtra("callerId");
+        received.getStringExtra("Username");
+        received.getStringExtra("media");
+        received.getStringExtra("profilePictureUrl");
+        received.getStringExtra("notificationText");
+        received.getStringExtra("notificationSummary");
+        received.getStringExtra("declineApiUrl");
+        return received.getStringExtra("uuid");
+    }
+
+    private static String typed(JSONObject data) {
+        Intent intent = new Intent().putExtra(CallPayload.EXTRA, CallPayload.fromJson(data));
+        return CallPayload.fromIntent(roundTrip(intent)).uuid;
+    }
+
+    // Marshal as the system does when delivering an Intent to another component
+    private static Intent roundTrip(Intent intent) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return Intent.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static JSONObject push() throws Exception {
+        return new JSONObject()
+            .put("callerId", "user-42")
+            .put("callId", "0190a5c2-7d3e-7abc-8def-0123456789ab")
+            .put("Username", "Ada Lovelace")
+            .put("media", "video")
+            .put("profilePictureUrl", "https://example.com/avatar.jpg")
+            .put("notificationText", "Incoming video call")
+            .put("notificationSummary", "Tap to answer")
+            .put("declineApiUrl", "https://example.com/decline")
+            .put("timestamp", "1700000000000");
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Time to build a ringing notification: the template against the per-push PackageManager lookups and
+ * builder setup it replaced. PendingIntents are created the same way on both paths.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IncomingCallTemplateBenchmark {
+
+    private static final String TAG = "IncomingCallTemplateBenchmark";
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+    private static final int FLAGS = PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @Test
+    public void launchIntent_matchesPackageManager() {
+        Intent expected = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+        Intent actual = IncomingCallTemplate.getInstance(context).newLaunchIntent();
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getComponent(), actual.getComponent());
+        assertEquals(expected.getAction(), actual.getAction());
+        assertTrue(actual.hasCategory(Intent.CATEGORY_LAUNCHER));
+    }
+
+    @Test
+    public void template_fillsPerCallFields() {
+        Notification notification = templated(1).build();
+        assertEquals("Caller 1", notification.extras.getString(NotificationCompat.EXTRA_TITLE));
+        assertEquals(NotificationChannels.INCOMING_CHANNEL_ID, notification.getChannelId());
+        assertNotNull(notification.fullScreenIntent);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            assertEquals(Notification.CallStyle.class.getName(), notification.extras.getString(Notification.EXTRA_TEMPLATE));
+        } else {
+            assertEquals(2, notification.actions.length);
+            assertEquals(context.getString(R.string.answer), notification.actions[1].title.toString());
+        }
+    }
+
+    @Test
+    public void template_blankName_usesDefaultTitle() {
+        Intent cancel = new Intent(context, CallNotificationActionReceiver.class);
+        Notification notification = IncomingCallTemplate.getInstance(context)
+            .newBuilder("  ", IncomingCallTemplate.DEFAULT_TEXT, IncomingCallTemplate.DEFAULT_SUMMARY, null, false, RingTimeoutScheduler.DEFAULT_TIMEOUT_MS,
+                broadcast(0, 0, cancel), broadcast(0, 1, cancel), broadcast(0, 3, cancel), broadcast(0, 4, cancel))
+            .build();
+        assertEquals(IncomingCallTemplate.DEFAULT_TITLE, notification.extras.getString(NotificationCompat.EXTRA_TITLE));
+    }
+
+    @Test
+    public void template_vsPerPushSetup() {
+        for (int i = 0; i < WARMUP; i++) {
+            legacy(i).build();
+            templated(i).build();
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacy(i).build();
+        }
+        long legacyNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            templated(i).build();
+        }
+        long templateNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Log.i(TAG, "per notification: per-push setup " + legacyNanos / 1000.0 + "us, template " + templateNanos / 1000.0 + "us");
+        assertTrue(templateNanos > 0 && legacyNanos > 0);
+    }
+
+    // What the service did before: a PackageManager lookup per launch Intent, extras one by one, labels per push
+    private NotificationCompat.Builder legacy(int call) {
+        String uuid = "call-" + call;
+        Intent receive = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+        receive = receive != null ? receive : new Intent(context, CallNotificationActionReceiver.class);
+        receive.putExtra("callerId", "user-" + call);
+        receive.putExtra("Username", "Caller " + call);
+        receive.putExtra("media", "audio");
+        receive.putExtra("uuid", uuid);
+        receive.putExtra("ACTION_TYPE", "RECEIVE_CALL");
+        Intent cancel = new Intent(context, CallNotificationActionReceiver.class);
+        cancel.putExtra("callerId", "user-" + call);
+        cancel.putExtra("Username", "Caller " + call);
+        cancel.putExtra("media", "audio");
+        cancel.putExtra("uuid", uuid);
+        cancel.putExtra("ACTION_TYPE", "CANCEL_CALL");
+        Intent content = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+        content = content != null ? content : new Intent(context, CallNotificationActionReceiver.class);
+        content.putExtra("callerId", "user-" + call);
+        content.putExtra("Username", "Caller " + call);
+        content.putExtra("media", "audio");
+        content.putExtra("uuid", uuid);
+
+        return new NotificationCompat.Builder(context, NotificationChannels.INCOMING_CHANNEL_ID)
+            .setContentTitle("Caller " + call)
+            .setContentText(IncomingCallTemplate.DEFAULT_TEXT)
+            .setSmallIcon(R.drawable.ic_stat_call)
+            .setPriority(NotificationCompat.PRIORITY_MAX)
+            .setCategory(NotificationCompat.CATEGORY_CALL)
+            .addAction(R.drawable.ic_stat_call, context.getString(R.string.reject), broadcast(call, 1, cancel))
+            .addAction(R.drawable.ic_stat_call, context.getString(R.string.answer), activity(call, 0, receive))
+            .setAutoCancel(true)
+            .setFullScreenIntent(broadcast(call, 3, cancel), true)
+            .setOngoing(true)
+            .setTimeoutAfter(30000)
+            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+            .setContentIntent(activity(call, 4, content))
+            .setStyle(new NotificationCompat.BigTextStyle()
+                .bigText(IncomingCallTemplate.DEFAULT_TEXT)
+                .setSummaryText(IncomingCallTemplate.DEFAULT_SUMMARY));
+    }
+
+    private NotificationCompat.Builder templated(int call) {
+        IncomingCallTemplate template = IncomingCallTemplate.getInstance(context);
+        Bundle extras = IncomingCallTemplate.callExtras("user-" + call, "Caller " + call, "audio", "call-" + call);
+        Intent receive = template.newLaunchIntent();
+        receive = receive != null ? receive : new Intent(context, CallNotificationActionReceiver.class);
+        receive.putExtras(extras).putExtra("ACTION_TYPE", "RECEIVE_CALL");
+        Intent cancel = new Intent(context, CallNotificationActionReceiver.class).putExtras(extras).putExtra("ACTION_TYPE", "CANCEL_CALL");
+        Intent content = template.newLaunchIntent();
+        content = content != null ? content : new Intent(context, CallNotificationActionReceiver.class);
+        content.putExtras(extras);
+
+        return template.newBuilder("Caller " + call, IncomingCallTemplate.DEFAULT_TEXT, IncomingCallTemplate.DEFAULT_SUMMARY, null, false, RingTimeoutScheduler.DEFAULT_TIMEOUT_MS,
+            activity(call, 0, receive), broadcast(call, 1, cancel), broadcast(call, 3, cancel), activity(call, 4, content));
+    }
+
+    private PendingIntent activity(int call, int action, Intent intent) {
+        return PendingIntent.getActivity(context, call * 8 + action, intent, FLAGS);
+    }
+
+    private PendingIntent broadcast(int call, int action, Intent intent) {
+        return PendingIntent.getBroadcast(context, call * 8 + action, intent, FLAGS);
+    }
+}
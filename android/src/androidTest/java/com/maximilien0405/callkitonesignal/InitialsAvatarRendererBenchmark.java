@@ -0,0 +1,45 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the cost of rendering an initials avatar, cold and from the LRU.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InitialsAvatarRendererBenchmark {
+
+    private static final String TAG = "InitialsAvatarBenchmark";
+    private static final int SIZE = 192;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void render_coldAndCached() {
+        // Warm up class loading and the typeface
+        InitialsAvatarRenderer.draw("WU", 0xFF1E88E5, SIZE).recycle();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            InitialsAvatarRenderer.draw("JD", 0xFF1E88E5, SIZE).recycle();
+        }
+        long coldNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Bitmap first = InitialsAvatarRenderer.render("John Doe", "caller-1", SIZE);
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertSame(first, InitialsAvatarRenderer.render("John Doe", "caller-1", SIZE));
+        }
+        long cachedNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        Log.i(TAG, "render: " + coldNanos / 1000 + "us cold, " + cachedNanos + "ns cached");
+        assertEquals(SIZE, first.getWidth());
+        assertTrue("cold render should stay well under a frame", coldNanos < 8_000_000L);
+        assertTrue(cachedNanos < coldNanos);
+    }
+}
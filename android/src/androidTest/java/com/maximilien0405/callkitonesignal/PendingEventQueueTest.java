@@ -0,0 +1,98 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Ring buffer, dedup, expiry and on-disk replay of the pending event queue.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PendingEventQueueTest {
+
+    private static final long MAX_AGE = 60_000;
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "pending-events-test.jsonl");
+        file.delete();
+    }
+
+    @Test
+    public void duplicatesByNameAndUuid_areDropped() {
+        PendingEventQueue queue = new PendingEventQueue(file, 4, MAX_AGE);
+        assertTrue(queue.add("incoming", event("caller", "uuid-1"), 1_000));
+        assertFalse(queue.add("incoming", event("caller", "uuid-1"), 1_001));
+        assertTrue(queue.add("incoming", event("caller", "uuid-2"), 1_002));
+        assertTrue(queue.add("callAnswered", event("caller", "uuid-1"), 1_003));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void fullQueue_overwritesOldestAndKeepsOrder() {
+        PendingEventQueue queue = new PendingEventQueue(file, 3, MAX_AGE);
+        for (int i = 0; i < 5; i++) {
+            queue.add("incoming", event("caller", "uuid-" + i), 1_000 + i);
+        }
+        List<PendingEventQueue.Event> events = queue.drain(2_000);
+        assertEquals(3, events.size());
+        assertEquals("uuid-2", events.get(0).data.getString("uuid"));
+        assertEquals("uuid-4", events.get(2).data.getString("uuid"));
+        // The evicted event can be queued again
+        assertTrue(queue.add("incoming", event("caller", "uuid-0"), 2_001));
+    }
+
+    @Test
+    public void expiredEvents_areDropped() {
+        PendingEventQueue queue = new PendingEventQueue(file, 4, MAX_AGE);
+        queue.add("incoming", event("caller", "uuid-1"), 1_000);
+        queue.add("incoming", event("caller", "uuid-2"), 30_000);
+        List<PendingEventQueue.Event> events = queue.drain(1_000 + MAX_AGE);
+        assertEquals(1, events.size());
+        assertEquals("uuid-2", events.get(0).data.getString("uuid"));
+        assertTrue(queue.isEmpty(1_000 + MAX_AGE));
+    }
+
+    @Test
+    public void events_surviveANewProcess() throws Exception {
+        PendingEventQueue queue = new PendingEventQueue(file, 4, MAX_AGE);
+        queue.add("incoming", event("caller", "uuid-1"), 1_000);
+        queue.add("callEnded", event("caller", "uuid-1"), 1_001);
+        awaitWrites();
+
+        PendingEventQueue restored = new PendingEventQueue(file, 4, MAX_AGE);
+        restored.restore(2_000);
+        List<PendingEventQueue.Event> events = restored.drain(2_000);
+        assertEquals(2, events.size());
+        assertEquals("incoming", events.get(0).eventName);
+        assertEquals("callEnded", events.get(1).eventName);
+        assertEquals("caller", events.get(0).data.getString("callerId"));
+        awaitWrites();
+
+        PendingEventQueue afterDrain = new PendingEventQueue(file, 4, MAX_AGE);
+        afterDrain.restore(2_000);
+        assertEquals(0, afterDrain.size());
+    }
+
+    private static JSObject event(String callerId, String uuid) {
+        JSObject data = new JSObject();
+        data.put("connectionId", callerId);
+        data.put("callerId", callerId);
+        data.put("uuid", uuid);
+        return data;
+    }
+
+    // Writes go through a background thread; they are tiny, so a short wait is plenty
+    private static void awaitWrites() throws InterruptedException {
+        Thread.sleep(200);
+    }
+}
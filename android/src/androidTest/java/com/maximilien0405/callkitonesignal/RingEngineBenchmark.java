@@ -0,0 +1,115 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Startup latency of the ring engine: a preloaded ringtone must start within a few milliseconds,
+ * and stop/release must leave nothing playing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RingEngineBenchmark {
+
+    private static final String TAG = "RingEngineBenchmark";
+    private static final long MAX_PRELOADED_START_MS = 10;
+    private static final int RUNS = 10;
+
+    private Context context;
+    private Uri tone;
+    private RingEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        tone = Uri.fromFile(writeTone(new File(context.getCacheDir(), "ring-engine-test.wav")));
+        engine = new RingEngine(context);
+    }
+
+    @After
+    public void tearDown() {
+        engine.release();
+    }
+
+    @Test
+    public void preloadedRingtone_startsWithinAFewMilliseconds() {
+        assumeTrue("ringer must be in normal mode", ringerMode() == AudioManager.RINGER_MODE_NORMAL);
+        long prepareStart = SystemClock.elapsedRealtimeNanos();
+        assertTrue(engine.prepare(tone));
+        long prepareNanos = SystemClock.elapsedRealtimeNanos() - prepareStart;
+
+        long worst = 0;
+        for (int i = 0; i < RUNS; i++) {
+            engine.ring(tone, new long[] { 0, 50, 50 });
+            assertTrue(engine.isSoundPlaying());
+            worst = Math.max(worst, engine.getLastStartLatencyNanos());
+            engine.stop();
+            assertFalse(engine.isSoundPlaying());
+        }
+
+        Log.i(TAG, "prepare " + prepareNanos / 1000 + "us, worst preloaded start " + worst / 1000 + "us over " + RUNS + " runs");
+        assertTrue("preloaded start took " + worst / 1_000_000 + "ms", worst < MAX_PRELOADED_START_MS * 1_000_000);
+    }
+
+    @Test
+    public void coldRing_startsOncePrepared() throws Exception {
+        assumeTrue("ringer must be in normal mode", ringerMode() == AudioManager.RINGER_MODE_NORMAL);
+        long start = SystemClock.elapsedRealtimeNanos();
+        engine.ring(tone, null);
+        long deadline = SystemClock.elapsedRealtime() + 2000;
+        while (!engine.isSoundPlaying() && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(5);
+        }
+        Log.i(TAG, "cold ring audible after " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+        assertTrue(engine.isSoundPlaying());
+    }
+
+    @Test
+    public void release_stopsEverything() {
+        engine.prepare(tone);
+        engine.ring(tone, null);
+        engine.release();
+        assertFalse(engine.isRinging());
+        assertFalse(engine.isSoundPlaying());
+        // Releasing twice is harmless
+        engine.release();
+    }
+
+    private int ringerMode() {
+        AudioManager audioManager = context.getSystemService(AudioManager.class);
+        return audioManager != null ? audioManager.getRingerMode() : AudioManager.RINGER_MODE_SILENT;
+    }
+
+    // One second of a quiet 440Hz tone as 8kHz mono 16-bit PCM
+    private static File writeTone(File file) throws Exception {
+        int sampleRate = 8000;
+        int samples = sampleRate;
+        ByteBuffer wav = ByteBuffer.allocate(44 + samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put("RIFF".getBytes()).putInt(36 + samples * 2).put("WAVE".getBytes());
+        wav.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+            .putInt(sampleRate).putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16);
+        wav.put("data".getBytes()).putInt(samples * 2);
+        for (int i = 0; i < samples; i++) {
+            wav.putShort((short) (Math.sin(2 * Math.PI * 440 * i / sampleRate) * 2000));
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(wav.array());
+        }
+        return file;
+    }
+}
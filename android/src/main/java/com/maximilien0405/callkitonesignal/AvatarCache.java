@@ -0,0 +1,286 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Two-tier cache for caller avatars shown on the incoming call notification.
+ *
+ * The memory tier holds bitmaps already scaled and cropped for the notification, sized by byte count, so a repeat caller
+ * gets its avatar without any I/O. The disk tier keeps the original bytes in the app cache dir, keyed by URL,
+ * along with the ETag/Last-Modified validators used to revalidate them with a conditional request.
+ */
+public class AvatarCache {
+    private static final String TAG = "AvatarCache";
+    private static final String DIR_NAME = "callkit-avatars";
+    private static final int MAX_MEMORY_BYTES = 2 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_DOWNLOAD_BYTES = 5 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    private static volatile AvatarCache instance;
+
+    private final File directory;
+    private final LruCache<String, Bitmap> memoryCache;
+
+    public interface Callback {
+        void onAvatarLoaded(Bitmap bitmap);
+    }
+
+    private AvatarCache(Context context) {
+        directory = new File(context.getCacheDir(), DIR_NAME);
+        int memoryBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 64);
+        memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    public static AvatarCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AvatarCache.class) {
+                if (instance == null) {
+                    instance = new AvatarCache(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Return the scaled avatar from memory, or null. Never does I/O.
+     */
+    public Bitmap getCached(String url, int sizePx) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        return memoryCache.get(memoryKey(url, sizePx));
+    }
+
+    /**
+     * Load the avatar for a URL scaled to sizePx. Memory hits call back synchronously; otherwise the disk copy
+     * (or the network) is used on the shared executor and the disk copy is revalidated afterwards.
+     */
+    public void load(String url, int sizePx, Callback callback) {
+        if (url == null || url.isEmpty()) {
+            callback.onAvatarLoaded(null);
+            return;
+        }
+        Bitmap cached = getCached(url, sizePx);
+        if (cached != null) {
+            Log.d(TAG, "Avatar memory cache hit");
+            callback.onAvatarLoaded(cached);
+            return;
+        }
+
+        boolean queued = CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.RING_CRITICAL, "loadAvatar", () -> {
+            Bitmap bitmap = null;
+            boolean delivered = false;
+            try {
+                File file = dataFile(url);
+                if (file.exists()) {
+                    bitmap = decode(readFile(file), sizePx);
+                    if (bitmap != null) {
+                        memoryCache.put(memoryKey(url, sizePx), bitmap);
+                        Log.d(TAG, "Avatar disk cache hit");
+                        callback.onAvatarLoaded(bitmap);
+                        delivered = true;
+                    }
+                }
+
+                byte[] fresh = fetch(url, delivered ? readValidators(url) : null);
+                if (fresh != null) {
+                    Bitmap freshBitmap = decode(fresh, sizePx);
+                    if (freshBitmap != null) {
+                        memoryCache.put(memoryKey(url, sizePx), freshBitmap);
+                        bitmap = freshBitmap;
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading avatar: " + e.getMessage());
+            }
+            if (!delivered) {
+                callback.onAvatarLoaded(bitmap);
+            }
+        });
+        if (!queued) {
+            callback.onAvatarLoaded(null);
+        }
+    }
+
+    /**
+     * Download the image, sending the stored validators if any. Returns the new bytes (also written to disk),
+     * or null if the server answered 304 or the request failed.
+     */
+    private byte[] fetch(String imageUrl, Properties validators) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(imageUrl).openConnection();
+        try {
+            connection.setDoInput(true);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (validators != null) {
+                String etag = validators.getProperty("etag");
+                String lastModified = validators.getProperty("lastModified");
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.d(TAG, "Avatar not modified");
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Failed to load avatar, HTTP: " + responseCode);
+                return null;
+            }
+
+            byte[] bytes;
+            try (InputStream input = connection.getInputStream()) {
+                bytes = readFully(input);
+            }
+            store(imageUrl, bytes, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            return bytes;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Bitmap decode(byte[] bytes, int sizePx) {
+        return AvatarDecoder.decodeCircular(bytes, sizePx);
+    }
+
+    private synchronized void store(String url, byte[] bytes, String etag, String lastModified) {
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                return;
+            }
+            File data = dataFile(url);
+            File temp = new File(directory, data.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            if (!temp.renameTo(data)) {
+                temp.delete();
+                return;
+            }
+
+            Properties validators = new Properties();
+            if (etag != null) validators.setProperty("etag", etag);
+            if (lastModified != null) validators.setProperty("lastModified", lastModified);
+            try (OutputStream out = new FileOutputStream(metaFile(url))) {
+                validators.store(out, null);
+            }
+            trimDisk();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to write avatar to disk cache: " + e.getMessage());
+        }
+    }
+
+    private Properties readValidators(String url) {
+        File meta = metaFile(url);
+        if (!meta.exists()) {
+            return null;
+        }
+        Properties validators = new Properties();
+        try (InputStream in = new FileInputStream(meta)) {
+            validators.load(in);
+            return validators;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Oldest files go first once the directory is over budget
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File dataFile(String url) {
+        return new File(directory, hash(url));
+    }
+
+    private File metaFile(String url) {
+        return new File(directory, hash(url) + ".meta");
+    }
+
+    private static String memoryKey(String url, int sizePx) {
+        return sizePx + "@" + url;
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readFully(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        byte[] chunk = new byte[8 * 1024];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            if (out.size() + read > MAX_DOWNLOAD_BYTES) {
+                throw new IOException("Avatar larger than " + MAX_DOWNLOAD_BYTES + " bytes");
+            }
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+/**
+ * Memory-efficient decode pipeline for caller avatars.
+ *
+ * Reads the image bounds first, decodes with the largest power-of-two inSampleSize that still covers the
+ * target size, prefers RGB_565 for opaque images, and draws the result into the final circular bitmap in a
+ * single pass, so a multi-megapixel upload never gets decoded at full resolution.
+ */
+public final class AvatarDecoder {
+    private AvatarDecoder() {}
+
+    /**
+     * Decode image bytes into a circular ARGB_8888 avatar of targetSize x targetSize, or null if the bytes
+     * are not a decodable image.
+     */
+    public static Bitmap decodeCircular(byte[] data, int targetSize) {
+        Bitmap sampled = decodeSampled(data, targetSize);
+        if (sampled == null) {
+            return null;
+        }
+        Bitmap circular = cropToCircle(sampled, targetSize);
+        sampled.recycle();
+        return circular;
+    }
+
+    /**
+     * Decode at the smallest power-of-two downsample that still covers targetSize on the shorter side
+     */
+    static Bitmap decodeSampled(byte[] data, int targetSize) {
+        if (data == null || data.length == 0 || targetSize <= 0) {
+            return null;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, targetSize);
+        // Images with per-pixel alpha still decode as ARGB_8888; opaque ones take half the memory
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Largest power of two by which both dimensions can be divided while the shorter side stays at least targetSize
+     */
+    public static int calculateInSampleSize(int width, int height, int targetSize) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || targetSize <= 0) {
+            return inSampleSize;
+        }
+        int shorterSide = Math.min(width, height);
+        while (shorterSide / (inSampleSize * 2) >= targetSize) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Bytes a decode of a width x height image needs at the sample size chosen for targetSize
+     */
+    public static long estimateDecodedBytes(int width, int height, int targetSize, int bytesPerPixel) {
+        int inSampleSize = calculateInSampleSize(width, height, targetSize);
+        long sampledWidth = (width + inSampleSize - 1) / inSampleSize;
+        long sampledHeight = (height + inSampleSize - 1) / inSampleSize;
+        return sampledWidth * sampledHeight * bytesPerPixel;
+    }
+
+    /**
+     * Center-crop and scale the source into a circle in one draw
+     */
+    static Bitmap cropToCircle(Bitmap source, int targetSize) {
+        Bitmap output = Bitmap.createBitmap(targetSize, targetSize, Bitmap.Config.ARGB_8888);
+        float scale = (float) targetSize / Math.min(source.getWidth(), source.getHeight());
+        float dx = (targetSize - source.getWidth() * scale) / 2f;
+        float dy = (targetSize - source.getHeight() * scale) / 2f;
+
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(dx, dy);
+
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(shader);
+
+        float radius = targetSize / 2f;
+        new Canvas(output).drawCircle(radius, radius, radius, paint);
+        return output;
+    }
+}
@@ -0,0 +1,139 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.content.Intent;
+import android.telecom.CallAudioState;
+import android.telecom.Connection;
+import android.util.Log;
+
+/**
+ * Telecom's view of one call. Actions the system takes on it (headset buttons, answering from a car, another
+ * call needing the audio) are routed into the same paths as the notification actions.
+ */
+final class CallConnection extends Connection {
+    final String uuid;
+    private final Context context;
+    private final String declineApiUrl;
+    // Set for incoming calls until the ring is shown
+    private CallPayload payload;
+    // Telecom's mute flag from the previous audio state; null until the first one
+    private Boolean lastTelecomMuted;
+
+    CallConnection(Context context, String uuid, CallPayload payload) {
+        this.context = context.getApplicationContext();
+        this.uuid = uuid;
+        this.payload = payload;
+        this.declineApiUrl = payload != null ? payload.declineApiUrl : null;
+        setConnectionProperties(PROPERTY_SELF_MANAGED);
+        setConnectionCapabilities(CAPABILITY_HOLD | CAPABILITY_SUPPORT_HOLD | CAPABILITY_MUTE);
+        setAudioModeIsVoip(true);
+    }
+
+    @Override
+    public void onShowIncomingCallUi() {
+        CallPayload ringing = payload;
+        payload = null;
+        if (ringing != null) {
+            CallNotificationService.startRinging(context, ringing);
+        }
+    }
+
+    @Override
+    public void onAnswer() {
+        Log.d("CallConnection", "Answered through Telecom: " + uuid);
+        CallTimings.mark(uuid, CallTimings.ANSWER_TAPPED);
+        setActive();
+        CallStateManager.CallConfig config = CallStateManager.getInstance(context).getCallConfig(uuid);
+        if (config == null) {
+            return;
+        }
+        Intent answer = IncomingCallTemplate.getInstance(context).newLaunchIntent();
+        if (answer == null) {
+            return;
+        }
+        answer.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        answer.putExtras(IncomingCallTemplate.callExtras(config.getCallerId(), config.getUsername(), config.getMedia(), uuid));
+        answer.putExtra("fromNotification", true);
+        answer.putExtra("ACTION_TYPE", "RECEIVE_CALL");
+        CallKitVoipPlugin plugin = CallKitVoipPlugin.getInstance();
+        if (plugin != null) {
+            // Handled in-process so the answer does not depend on the activity start being allowed
+            plugin.handleCallIntent(new Intent(answer));
+            answer.removeExtra("ACTION_TYPE");
+        } else {
+            // Stop ringing now; the app picks the answer up from the launch Intent
+            CallStateManager.getInstance(context).markCallAnswered(uuid);
+            CallNotificationService.dismissCallNotification(context, uuid);
+        }
+        try {
+            context.startActivity(answer);
+        } catch (Exception e) {
+            Log.w("CallConnection", "Failed to bring app to front on answer: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onAnswer(int videoState) {
+        onAnswer();
+    }
+
+    @Override
+    public void onReject() {
+        Log.d("CallConnection", "Rejected through Telecom: " + uuid);
+        sendAction("CANCEL_CALL");
+    }
+
+    @Override
+    public void onDisconnect() {
+        Log.d("CallConnection", "Disconnected through Telecom: " + uuid);
+        sendAction("END_CALL");
+    }
+
+    @Override
+    public void onAbort() {
+        CallNotificationService.teardownCall(context, uuid);
+    }
+
+    @Override
+    public void onHold() {
+        setOnHold();
+        CallKitVoipPlugin.notifyHoldChanged(context, uuid, true);
+    }
+
+    @Override
+    public void onUnhold() {
+        setActive();
+        CallKitVoipPlugin.notifyHoldChanged(context, uuid, false);
+    }
+
+    @Override
+    public void onSilence() {
+        CallNotificationService.silenceRinging();
+    }
+
+    @Override
+    public void onCallAudioStateChanged(CallAudioState state) {
+        Log.d("CallConnection", "Call audio state: " + state);
+        Boolean previous = lastTelecomMuted;
+        lastTelecomMuted = state.isMuted();
+        // A self-managed app applies mute requests from the system (e.g. a headset or car) itself. Route changes
+        // report the same flag again and must not undo a mute set through setMuted or the notification.
+        if (previous != null && previous != state.isMuted()) {
+            MuteController.setMuted(context, state.isMuted());
+        }
+    }
+
+    // Same path as the notification buttons
+    private void sendAction(String actionType) {
+        CallStateManager.CallConfig config = CallStateManager.getInstance(context).getCallConfig(uuid);
+        Intent action = new Intent(context, CallNotificationActionReceiver.class);
+        if (config != null) {
+            action.putExtras(IncomingCallTemplate.callExtras(config.getCallerId(), config.getUsername(), config.getMedia(), uuid));
+        } else {
+            action.putExtra("uuid", uuid);
+        }
+        action.putExtra("ACTION_TYPE", actionType);
+        action.putExtra("declineApiUrl", declineApiUrl);
+        context.sendBroadcast(action);
+    }
+}
@@ -0,0 +1,84 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.telecom.Connection;
+import android.telecom.ConnectionRequest;
+import android.telecom.ConnectionService;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+import android.telecom.VideoProfile;
+import android.util.Log;
+
+/**
+ * Self-managed ConnectionService bound by Telecom when useConnectionService is on
+ */
+public class CallConnectionService extends ConnectionService {
+
+    @Override
+    public Connection onCreateIncomingConnection(PhoneAccountHandle connectionManagerPhoneAccount, ConnectionRequest request) {
+        String uuid = uuidOf(request);
+        CallPayload payload = TelecomCalls.takePendingIncoming(uuid);
+        if (payload == null) {
+            Log.w("CallConnectionService", "No pending incoming call for: " + uuid);
+            return Connection.createFailedConnection(new DisconnectCause(DisconnectCause.ERROR));
+        }
+        CallConnection connection = new CallConnection(getApplicationContext(), payload.uuid, payload);
+        connection.setAddress(Uri.fromParts(PhoneAccount.SCHEME_SIP, payload.callerId, null), TelecomManager.PRESENTATION_ALLOWED);
+        connection.setCallerDisplayName(payload.username, TelecomManager.PRESENTATION_ALLOWED);
+        connection.setVideoState("video".equals(payload.media) ? VideoProfile.STATE_BIDIRECTIONAL : VideoProfile.STATE_AUDIO_ONLY);
+        connection.setRinging();
+        TelecomCalls.register(connection);
+        Log.d("CallConnectionService", "Incoming connection created: " + payload.uuid);
+        return connection;
+    }
+
+    @Override
+    public void onCreateIncomingConnectionFailed(PhoneAccountHandle connectionManagerPhoneAccount, ConnectionRequest request) {
+        // Telecom refused the call, e.g. because of an emergency call; it is reported as missed without ringing
+        String uuid = uuidOf(request);
+        CallPayload payload = TelecomCalls.takePendingIncoming(uuid);
+        Log.w("CallConnectionService", "Telecom refused incoming call: " + uuid);
+        if (payload != null) {
+            CallKitVoipPlugin.notifyCallTerminated(getApplicationContext(), "callMissed",
+                new CallStateManager.CallConfig(payload.uuid, payload.callerId, payload.username, payload.media));
+        }
+    }
+
+    @Override
+    public Connection onCreateOutgoingConnection(PhoneAccountHandle connectionManagerPhoneAccount, ConnectionRequest request) {
+        String uuid = uuidOf(request);
+        CallStateManager.CallConfig config = CallStateManager.getInstance(getApplicationContext()).getCallConfig(uuid);
+        if (config == null) {
+            Log.w("CallConnectionService", "No registered outgoing call for: " + uuid);
+            return Connection.createFailedConnection(new DisconnectCause(DisconnectCause.ERROR));
+        }
+        CallConnection connection = new CallConnection(getApplicationContext(), uuid, null);
+        connection.setAddress(request.getAddress(), TelecomManager.PRESENTATION_ALLOWED);
+        connection.setCallerDisplayName(config.getUsername(), TelecomManager.PRESENTATION_ALLOWED);
+        connection.setVideoState(request.getVideoState());
+        // The app's own media stack signals progress; the call takes the audio as soon as it is placed
+        connection.setActive();
+        TelecomCalls.register(connection);
+        Log.d("CallConnectionService", "Outgoing connection created: " + uuid);
+        return connection;
+    }
+
+    @Override
+    public void onCreateOutgoingConnectionFailed(PhoneAccountHandle connectionManagerPhoneAccount, ConnectionRequest request) {
+        String uuid = uuidOf(request);
+        Log.w("CallConnectionService", "Telecom refused outgoing call: " + uuid);
+        CallStateManager.CallConfig config = CallStateManager.getInstance(getApplicationContext()).getCallConfig(uuid);
+        if (config != null) {
+            CallNotificationService.teardownCall(getApplicationContext(), uuid);
+            CallKitVoipPlugin.notifyCallTerminated(getApplicationContext(), "callEnded", config);
+        }
+    }
+
+    private static String uuidOf(ConnectionRequest request) {
+        Bundle extras = request.getExtras();
+        return extras != null ? extras.getString(TelecomCalls.EXTRA_UUID) : null;
+    }
+}
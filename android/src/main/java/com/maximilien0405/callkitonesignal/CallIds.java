@@ -0,0 +1,51 @@
+package com.maximilien0405.callkitonesignal;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Call uuid helpers.
+ *
+ * Generated ids are time-ordered UUIDv7 drawn from ThreadLocalRandom, so a cold start never pays for seeding
+ * SecureRandom just to name a call. Ids supplied by the backend are accepted as long as they are well-formed.
+ */
+public final class CallIds {
+    private CallIds() {}
+
+    /**
+     * New UUIDv7: 48-bit Unix millisecond timestamp followed by 74 random bits
+     */
+    public static String newUuid() {
+        return newUuid(System.currentTimeMillis()).toString();
+    }
+
+    static UUID newUuid(long unixMillis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long msb = (unixMillis & 0xFFFFFFFFFFFFL) << 16
+            | 0x7000L
+            | (random.nextInt() & 0x0FFFL);
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Canonical lower-case form of a uuid string, or null if it is not one
+     */
+    public static String normalize(String value) {
+        if (value == null || value.length() != 36) {
+            return null;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+            } else if (Character.digit(c, 16) < 0) {
+                return null;
+            }
+        }
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,301 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Append-only, memory-mapped journal of call registrations and state transitions.
+ *
+ * Records are written into a fixed-size mapping in the app's files dir, so they survive the process being
+ * killed without any fsync. Each record is committed by writing its type byte last, which means a write cut
+ * short by process death is simply ignored on replay. The mapping holds two regions and records are appended to
+ * the active one; compaction writes the live calls into the other region and then switches the header over to
+ * it in a single int write, so a compaction cut short leaves the previous region in effect. All writes run on a
+ * single background thread.
+ */
+class CallJournal {
+    private static final String TAG = "CallJournal";
+    private static final String FILE_NAME = "callkit-call-journal.bin";
+    private static final int JOURNAL_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x434B4A33; // "CKJ3"
+    private static final int ACTIVE_REGION_OFFSET = 4;
+    private static final int HEADER_SIZE = 8; // magic + start of the active region
+    private static final int REGION_SIZE = (JOURNAL_SIZE - HEADER_SIZE) / 2;
+    private static final int RECORD_HEADER_SIZE = 3; // type + payload length
+    static final int MAX_STRING_BYTES = 2048;
+
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_REGISTER = 1;
+    private static final byte RECORD_STATE = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    private final MappedByteBuffer buffer;
+    private final Supplier<Collection<CallStateManager.CallConfig>> liveCalls;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CallKit-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ByteBuffer scratch = ByteBuffer.allocate(REGION_SIZE / 2);
+    // Bounds of the region records are appended to
+    private int regionStart;
+    private int regionEnd;
+
+    private CallJournal(MappedByteBuffer buffer, Supplier<Collection<CallStateManager.CallConfig>> liveCalls) {
+        this.buffer = buffer;
+        this.liveCalls = liveCalls;
+        this.regionStart = buffer.getInt(ACTIVE_REGION_OFFSET);
+        this.regionEnd = regionStart + REGION_SIZE;
+    }
+
+    /**
+     * Map the journal file, creating it if needed. Returns null if the journal cannot be opened,
+     * in which case call state simply stays in memory as before.
+     */
+    static CallJournal open(Context context, Supplier<Collection<CallStateManager.CallConfig>> liveCalls) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(JOURNAL_SIZE);
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+            int active = mapped.getInt(ACTIVE_REGION_OFFSET);
+            if (mapped.getInt(0) != MAGIC || (active != HEADER_SIZE && active != HEADER_SIZE + REGION_SIZE)) {
+                mapped.put(HEADER_SIZE, RECORD_END);
+                mapped.putInt(ACTIVE_REGION_OFFSET, HEADER_SIZE);
+                mapped.putInt(0, MAGIC);
+            }
+            return new CallJournal(mapped, liveCalls);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to open call journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rebuild the calls that were still registered when the previous process died.
+     * Must be called before any append.
+     */
+    List<CallStateManager.CallConfig> replay() {
+        Map<String, CallStateManager.CallConfig> calls = new LinkedHashMap<>();
+        ByteBuffer reader = buffer.duplicate();
+        int position = regionStart;
+        try {
+            while (position + RECORD_HEADER_SIZE <= regionEnd) {
+                byte type = reader.get(position);
+                if (type == RECORD_END) {
+                    break;
+                }
+                int length = reader.getShort(position + 1) & 0xFFFF;
+                int payloadStart = position + RECORD_HEADER_SIZE;
+                if (payloadStart + length > regionEnd) {
+                    break;
+                }
+                reader.limit(payloadStart + length);
+                reader.position(payloadStart);
+                applyRecord(type, reader, calls);
+                reader.limit(JOURNAL_SIZE);
+                position = payloadStart + length;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(TAG, "Call journal truncated at offset " + position + ", ignoring the rest");
+        }
+        buffer.position(position);
+        Log.d(TAG, "Replayed call journal: " + calls.size() + " call(s) restored");
+        return new ArrayList<>(calls.values());
+    }
+
+    private void applyRecord(byte type, ByteBuffer reader, Map<String, CallStateManager.CallConfig> calls) {
+        switch (type) {
+            case RECORD_REGISTER: {
+                String uuid = readString(reader);
+                String callerId = readString(reader);
+                String username = readString(reader);
+                String media = readString(reader);
+                String profilePictureUrl = readString(reader);
+                CallStateManager.CallState state = stateOf(reader.get());
+                long createdAt = reader.getLong();
+                long lastTransitionAt = reader.getLong();
+                if (uuid != null && state != null && !calls.containsKey(uuid)) {
+                    CallStateManager.CallConfig config = new CallStateManager.CallConfig(uuid, callerId, username, media, profilePictureUrl, state, createdAt);
+                    config.moveTo(state, lastTransitionAt);
+                    calls.put(uuid, config);
+                }
+                break;
+            }
+            case RECORD_STATE: {
+                String uuid = readString(reader);
+                CallStateManager.CallState next = stateOf(reader.get());
+                long transitionAt = reader.getLong();
+                CallStateManager.CallConfig config = uuid != null ? calls.get(uuid) : null;
+                // Records queued around a compaction may already be reflected in the snapshot, so only apply valid moves
+                if (config != null && next != null && config.getState().canTransitionTo(next)) {
+                    config.moveTo(next, transitionAt);
+                }
+                break;
+            }
+            case RECORD_REMOVE: {
+                String uuid = readString(reader);
+                if (uuid != null) {
+                    calls.remove(uuid);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown journal record type: " + type);
+        }
+    }
+
+    void appendRegister(CallStateManager.CallConfig config) {
+        String uuid = config.getUuid();
+        String callerId = config.getCallerId();
+        String username = config.getUsername();
+        String media = config.getMedia();
+        String profilePictureUrl = config.getProfilePictureUrl();
+        CallStateManager.CallState state = config.getState();
+        long createdAt = config.getCreatedAt();
+        long lastTransitionAt = config.getLastTransitionAt();
+        writer.execute(() -> {
+            scratch.clear();
+            writeString(scratch, uuid);
+            writeString(scratch, callerId);
+            writeString(scratch, username);
+            writeString(scratch, media);
+            writeString(scratch, profilePictureUrl);
+            scratch.put((byte) state.ordinal());
+            scratch.putLong(createdAt);
+            scratch.putLong(lastTransitionAt);
+            commit(RECORD_REGISTER);
+        });
+    }
+
+    void appendState(String uuid, CallStateManager.CallState state, long transitionAt) {
+        writer.execute(() -> {
+            scratch.clear();
+            writeString(scratch, uuid);
+            scratch.put((byte) state.ordinal());
+            scratch.putLong(transitionAt);
+            commit(RECORD_STATE);
+        });
+    }
+
+    void appendRemove(String uuid) {
+        writer.execute(() -> {
+            scratch.clear();
+            writeString(scratch, uuid);
+            commit(RECORD_REMOVE);
+        });
+    }
+
+    /**
+     * Rewrite the journal so it only holds the calls that are still live
+     */
+    void compact() {
+        writer.execute(this::compactNow);
+    }
+
+    private void compactNow() {
+        Collection<CallStateManager.CallConfig> live = liveCalls != null ? liveCalls.get() : Collections.emptyList();
+        int target = regionStart == HEADER_SIZE ? HEADER_SIZE + REGION_SIZE : HEADER_SIZE;
+        int targetEnd = target + REGION_SIZE;
+        buffer.put(target, RECORD_END);
+        buffer.position(target);
+        for (CallStateManager.CallConfig config : live) {
+            scratch.clear();
+            writeString(scratch, config.getUuid());
+            writeString(scratch, config.getCallerId());
+            writeString(scratch, config.getUsername());
+            writeString(scratch, config.getMedia());
+            writeString(scratch, config.getProfilePictureUrl());
+            scratch.put((byte) config.getState().ordinal());
+            scratch.putLong(config.getCreatedAt());
+            scratch.putLong(config.getLastTransitionAt());
+            if (!write(RECORD_REGISTER, targetEnd)) {
+                Log.w(TAG, "Call journal full after compaction, dropping remaining calls");
+                break;
+            }
+        }
+        // Until this write, replay still reads the previous region
+        buffer.putInt(ACTIVE_REGION_OFFSET, target);
+        regionStart = target;
+        regionEnd = targetEnd;
+        Log.d(TAG, "Call journal compacted to " + live.size() + " call(s)");
+    }
+
+    // Runs on the writer thread; scratch holds the encoded payload
+    private void commit(byte type) {
+        if (write(type, regionEnd)) {
+            return;
+        }
+        // Out of space: the live snapshot already contains this record's effect
+        compactNow();
+    }
+
+    // Append the record in scratch at the current position, keeping it and its end marker before limit
+    private boolean write(byte type, int limit) {
+        scratch.flip();
+        int length = scratch.remaining();
+        int position = buffer.position();
+        int end = position + RECORD_HEADER_SIZE + length;
+        if (end + 1 > limit) {
+            return false;
+        }
+        buffer.putShort(position + 1, (short) length);
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(scratch);
+        buffer.put(end, RECORD_END);
+        // Writing the type byte last commits the record
+        buffer.put(position, type);
+        buffer.position(end);
+        return true;
+    }
+
+    // Strings longer than MAX_STRING_BYTES are cut on a character boundary
+    static void writeString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length > MAX_STRING_BYTES) {
+            length = MAX_STRING_BYTES;
+            // Back off while the first dropped byte continues the character before it
+            while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+        }
+        out.putShort((short) length);
+        out.put(bytes, 0, length);
+    }
+
+    static String readString(ByteBuffer in) {
+        short length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static CallStateManager.CallState stateOf(byte ordinal) {
+        CallStateManager.CallState[] states = CallStateManager.CallState.values();
+        return ordinal >= 0 && ordinal < states.length ? states[ordinal] : null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.util.Log;
+import com.getcapacitor.CapConfig;
+import com.getcapacitor.PluginConfig;
+
+/**
+ * Plugin configuration for code that runs without a loaded plugin (push extension, services, receivers).
+ *
+ * Reads the CallkitOnesignal block of capacitor.config.json once per process; the plugin itself keeps using
+ * getConfig().
+ */
+final class CallKitConfig {
+    static final String PLUGIN_ID = "CallkitOnesignal";
+
+    /** Launch the app alongside the ring, as before */
+    static final String COLD_START_LAUNCH_APP = "launchApp";
+    /** Only the foreground service rings; the app starts when the user answers */
+    static final String COLD_START_SERVICE_ONLY = "serviceOnly";
+
+    private static volatile PluginConfig config;
+
+    private CallKitConfig() {}
+
+    private static PluginConfig get(Context context) {
+        if (config == null) {
+            synchronized (CallKitConfig.class) {
+                if (config == null) {
+                    try {
+                        config = CapConfig.loadDefault(context.getApplicationContext()).getPluginConfiguration(PLUGIN_ID);
+                    } catch (Exception e) {
+                        Log.w("CallKitConfig", "Failed to read plugin config: " + e.getMessage());
+                        return null;
+                    }
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * How an incoming call is handled while the app is not running
+     */
+    static String getColdStartMode(Context context) {
+        PluginConfig pluginConfig = context != null ? get(context) : null;
+        String mode = pluginConfig != null ? pluginConfig.getString("coldStartMode", COLD_START_LAUNCH_APP) : COLD_START_LAUNCH_APP;
+        return COLD_START_SERVICE_ONLY.equals(mode) ? COLD_START_SERVICE_ONLY : COLD_START_LAUNCH_APP;
+    }
+
+    /**
+     * Whether to warm up the WebView while an incoming call rings with the app not running
+     */
+    static boolean isPrewarmOnRing(Context context) {
+        PluginConfig pluginConfig = context != null ? get(context) : null;
+        return pluginConfig != null && pluginConfig.getBoolean("prewarmOnRing", false);
+    }
+
+    /**
+     * Whether calls also go through a self-managed Telecom ConnectionService
+     */
+    static boolean isConnectionServiceEnabled(Context context) {
+        PluginConfig pluginConfig = context != null ? get(context) : null;
+        return pluginConfig != null && pluginConfig.getBoolean("useConnectionService", false);
+    }
+}
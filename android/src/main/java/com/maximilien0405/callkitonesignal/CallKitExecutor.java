@@ -0,0 +1,152 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plugin-wide bounded executor for background I/O.
+ *
+ * Ring-critical work (such as fetching the caller's avatar) has its own threads at normal priority, so it
+ * never waits behind fire-and-forget work (such as decline callbacks), which runs on background-priority
+ * threads. Each queue is bounded; when it is full the task is rejected and the caller is told so it can
+ * fall back.
+ */
+public final class CallKitExecutor {
+    private static final String TAG = "CallKitExecutor";
+    private static final int RING_POOL_SIZE = 2;
+    private static final int BACKGROUND_POOL_SIZE = 2;
+    private static final int QUEUE_CAPACITY = 32;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Priority {
+        /** Work on the path to the phone ringing */
+        RING_CRITICAL,
+        /** Work nobody waits on */
+        BACKGROUND
+    }
+
+    private static volatile CallKitExecutor instance;
+
+    private final ThreadPoolExecutor ringExecutor;
+    private final ThreadPoolExecutor backgroundExecutor;
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+
+    private CallKitExecutor() {
+        ringExecutor = newPool("CallKit-ring-", RING_POOL_SIZE, Process.THREAD_PRIORITY_DEFAULT);
+        backgroundExecutor = newPool("CallKit-io-", BACKGROUND_POOL_SIZE, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    private static ThreadPoolExecutor newPool(String namePrefix, int size, int threadPriority) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            size,
+            size,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(threadPriority);
+                    runnable.run();
+                }, namePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, executor) -> {
+                throw new RejectedExecutionException(executor.isShutdown() ? "executor is shut down" : "queue full (" + QUEUE_CAPACITY + ")");
+            }
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public static CallKitExecutor getInstance() {
+        if (instance == null) {
+            synchronized (CallKitExecutor.class) {
+                if (instance == null) {
+                    instance = new CallKitExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a task. Returns false if it was rejected because the queue is full.
+     */
+    public boolean execute(Priority priority, String name, Runnable task) {
+        ThreadPoolExecutor executor = priority == Priority.RING_CRITICAL ? ringExecutor : backgroundExecutor;
+        try {
+            executor.execute(new TrackedTask(name, task));
+            submittedCount.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            Log.w(TAG, "Rejected " + priority + " task " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getMaxQueueWaitMillis() {
+        return maxQueueWaitMillis.get();
+    }
+
+    public int getQueueSize() {
+        return ringExecutor.getQueue().size() + backgroundExecutor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return ringExecutor.getActiveCount() + backgroundExecutor.getActiveCount();
+    }
+
+    private final class TrackedTask implements Runnable {
+        private final String name;
+        private final Runnable task;
+        private final long enqueuedAt = SystemClock.elapsedRealtime();
+
+        TrackedTask(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long waited = SystemClock.elapsedRealtime() - enqueuedAt;
+            maxQueueWaitMillis.accumulateAndGet(waited, Math::max);
+            try {
+                task.run();
+                completedCount.incrementAndGet();
+            } catch (Throwable t) {
+                failedCount.incrementAndGet();
+                Log.e(TAG, "Task " + name + " failed: " + t.getMessage());
+            }
+        }
+    }
+}
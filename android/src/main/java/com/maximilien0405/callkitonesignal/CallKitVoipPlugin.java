@@ -2,6 +2,7 @@ package com.maximilien0405.callkitonesignal;
 
 import com.maximilien0405.callkitonesignal.CallNotificationService;
 import com.getcapacitor.Bridge;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Logger;
 import com.getcapacitor.Plugin;
@@ -13,6 +14,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
@@ -24,7 +27,11 @@ public class CallKitVoipPlugin extends Plugin {
     private AudioManager audioManager;
     private AudioRouteChangeReceiver audioRouteChangeReceiver;
     private AudioFocusChangeListener audioFocusChangeListener;
-    private final java.util.List<JSObject> pendingEvents = new java.util.concurrent.CopyOnWriteArrayList<>();
+    private PendingEventQueue pendingEventQueue;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int audioRouteCoalesceMs = 0;
+    private String pendingAudioRoute;
+    private String lastEmittedAudioRoute;
     private boolean isAppFullyLoaded = false;
     private boolean isInCall = false;
 
@@ -34,12 +41,66 @@ public class CallKitVoipPlugin extends Plugin {
         staticBridge = this.bridge;
         context = this.getActivity().getApplicationContext();
         audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        pendingEventQueue = PendingEventQueue.getInstance(context);
+        // Channels are in place before the first push, so the ring path only checks a flag
+        CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.BACKGROUND, "ensureChannels", () -> NotificationChannels.ensure(context));
+        CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.BACKGROUND, "phoneAccount", () -> {
+            if (TelecomCalls.isEnabled(context)) {
+                TelecomCalls.registerAccount(context);
+            } else {
+                TelecomCalls.unregisterAccount(context);
+            }
+        });
         audioFocusChangeListener = new AudioFocusChangeListener();
         setupAudioRouteChangeListener();
+        applyCallTtlConfig();
+        audioRouteCoalesceMs = Math.max(0, getConfig().getInt("audioRouteCoalesceMs", 0));
+        restoreJournaledCalls();
+        // A serviceOnly cold start is launched by the answer action itself, which never reaches handleOnNewIntent
+        handleCallIntent(getActivity().getIntent());
         Log.d("CallKitVoipPlugin", "Plugin loaded successfully");
     }
     
+    /**
+     * Apply the optional per-state call TTLs (in seconds) from the plugin configuration
+     */
+    private void applyCallTtlConfig() {
+        try {
+            CallStateManager stateManager = CallStateManager.getInstance(context);
+            applyCallTtl(stateManager, "incomingCallTtl", CallStateManager.CallState.INCOMING);
+            applyCallTtl(stateManager, "outgoingCallTtl", CallStateManager.CallState.OUTGOING);
+            applyCallTtl(stateManager, "answeredCallTtl", CallStateManager.CallState.ANSWERED);
+            applyCallTtl(stateManager, "declinedCallTtl", CallStateManager.CallState.DECLINED);
+        } catch (Exception e) {
+            Log.w("CallKitVoipPlugin", "Failed to apply call TTL config: " + e.getMessage());
+        }
+    }
+
+    private void applyCallTtl(CallStateManager stateManager, String key, CallStateManager.CallState state) {
+        int seconds = getConfig().getInt(key, Integer.MIN_VALUE);
+        if (seconds != Integer.MIN_VALUE) {
+            stateManager.setStateTtl(state, seconds * 1000L);
+        }
+    }
+
+    /**
+     * Queue events for calls that were restored from the call journal after the process was killed
+     */
+    private void restoreJournaledCalls() {
+        CallStateManager stateManager = CallStateManager.getInstance(context);
+        for (CallStateManager.CallConfig config : stateManager.drainRestoredCalls()) {
+            CallStateManager.CallState state = config.getState();
+            if (state == CallStateManager.CallState.INCOMING) {
+                notifyEvent("incoming", config.getCallerId(), config.getUsername(), config.getMedia(), config.getUuid());
+            } else if (state == CallStateManager.CallState.ANSWERED) {
+                isInCall = true;
+                notifyEvent("callAnswered", config.getCallerId(), config.getUsername(), config.getMedia(), config.getUuid());
+            }
+        }
+    }
+    
     public void onDestroy() {
+        mainHandler.removeCallbacks(emitAudioRoute);
         if (audioRouteChangeReceiver != null) {
             try {
                 context.unregisterReceiver(audioRouteChangeReceiver);
@@ -80,33 +141,45 @@ public class CallKitVoipPlugin extends Plugin {
     protected void handleOnNewIntent(Intent data) {
         super.handleOnNewIntent(data);
         Log.d("CallKitVoipPlugin", "handleOnNewIntent called with data: " + (data != null ? data.toString() : "null"));
+        handleCallIntent(data);
+    }
+
+    /**
+     * Handle an activity intent coming from a call notification. The call extras are consumed so the same
+     * intent is not reported twice if the activity is recreated.
+     */
+    void handleCallIntent(Intent data) {
         if (data == null) {
             return;
         }
         
         String actionType = data.getStringExtra("ACTION_TYPE");
+        String event = data.getStringExtra("CALL_EVENT");
+        data.removeExtra("ACTION_TYPE");
+        data.removeExtra("CALL_EVENT");
         Log.d("CallKitVoipPlugin", "Action type from intent: " + actionType);
         if ("RECEIVE_CALL".equals(actionType)) {
             String callerId = data.getStringExtra("callerId");
             String username = data.getStringExtra("Username");
             String media = data.getStringExtra("media");
             String uuid = data.getStringExtra("uuid");
+            // Usually marked earlier, when the tap started the activity or Telecom answered; the first mark wins
+            CallTimings.mark(uuid, CallTimings.ANSWER_TAPPED);
             
             if (uuid != null) {
                 CallStateManager.getInstance().markCallAnswered(uuid);
+                TelecomCalls.setActive(uuid);
                 isInCall = true;
             }
 
             try {
-                Intent serviceIntent = new Intent(context, CallNotificationService.class);
-                context.stopService(serviceIntent);
-                android.app.NotificationManager notificationManager = 
-                    (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-                if (notificationManager != null) {
-                    notificationManager.cancelAll();
+                if (uuid != null) {
+                    CallNotificationService.dismissCallNotification(context, uuid);
+                } else {
+                    context.stopService(new Intent(context, CallNotificationService.class));
                 }
             } catch (Exception e) {
-                Log.w("CallKitVoipPlugin", "Failed to stop service/cancel notifications on answer: " + e.getMessage());
+                Log.w("CallKitVoipPlugin", "Failed to dismiss call notification on answer: " + e.getMessage());
             }
             
             JSObject payload = new JSObject();
@@ -117,10 +190,12 @@ public class CallKitVoipPlugin extends Plugin {
             if (uuid != null) payload.put("uuid", uuid);
             
             notifyEventWithQueue("callAnswered", payload);
+            // The answer has reached the bridge
+            CallTimings.mark(uuid, CallTimings.BRIDGE_READY);
+            CallTimings.logBetween(uuid, CallTimings.ANSWER_TAPPED, CallTimings.BRIDGE_READY, "Answer to " + CallTimings.BRIDGE_READY);
             return;
         }
         
-        String event = data.getStringExtra("CALL_EVENT");
         if (event == null || event.isEmpty()) {
             return;
         }
@@ -155,19 +230,8 @@ public class CallKitVoipPlugin extends Plugin {
             notifyListeners(eventName, data);
         } else {
             Log.d("CallKitVoipPlugin", "App is not fully loaded - storing " + eventName + " event as pending");
-            data.put("eventName", eventName);
-            
-            boolean isDuplicate = false;
-            for (JSObject existing : pendingEvents) {
-                if (eventName.equals(existing.getString("eventName")) &&
-                    data.getString("connectionId", "").equals(existing.getString("connectionId", ""))) {
-                    isDuplicate = true;
-                    break;
-                }
-            }
-            
-            if (!isDuplicate) {
-                pendingEvents.add(data);
+            if (!pendingEventQueue.add(eventName, data)) {
+                Log.d("CallKitVoipPlugin", "Pending " + eventName + " event already queued");
             }
         }
     }
@@ -249,6 +313,9 @@ public class CallKitVoipPlugin extends Plugin {
         filter.addAction(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED);
         filter.addAction(AudioManager.ACTION_HEADSET_PLUG);
         filter.addAction(Intent.ACTION_HEADSET_PLUG);
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.P) {
+            filter.addAction(AudioManager.ACTION_MICROPHONE_MUTE_CHANGED);
+        }
         
         try {
             context.registerReceiver(audioRouteChangeReceiver, filter);
@@ -270,10 +337,26 @@ public class CallKitVoipPlugin extends Plugin {
         }
     }
     
+    private final Runnable emitAudioRoute = () -> {
+        String route = pendingAudioRoute;
+        if (route == null || route.equals(lastEmittedAudioRoute)) {
+            return;
+        }
+        lastEmittedAudioRoute = route;
+        JSObject data = new JSObject();
+        data.put("route", route);
+        notifyListeners("audioRouteChanged", data);
+    };
+
     private class AudioRouteChangeReceiver extends android.content.BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
+
+            if (AudioManager.ACTION_MICROPHONE_MUTE_CHANGED.equals(action)) {
+                MuteController.onSystemMuteChanged(context);
+                return;
+            }
             
             if (AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED.equals(action) ||
                 AudioManager.ACTION_HEADSET_PLUG.equals(action) ||
@@ -283,9 +366,16 @@ public class CallKitVoipPlugin extends Plugin {
                 
                 Log.d("CallKitVoipPlugin", "Audio route changed: " + currentRoute);
                 
-                JSObject data = new JSObject();
-                data.put("route", currentRoute);
-                notifyListeners("audioRouteChanged", data);
+                if (audioRouteCoalesceMs > 0) {
+                    // Deliver only the route the burst settles on, and only if it actually changed
+                    pendingAudioRoute = currentRoute;
+                    mainHandler.removeCallbacks(emitAudioRoute);
+                    mainHandler.postDelayed(emitAudioRoute, audioRouteCoalesceMs);
+                } else {
+                    JSObject data = new JSObject();
+                    data.put("route", currentRoute);
+                    notifyListeners("audioRouteChanged", data);
+                }
             }
         }
     }
@@ -334,7 +424,18 @@ public class CallKitVoipPlugin extends Plugin {
     }
   
     
-    public static void addPendingEvent(String eventName, String callerId, String username, String media, String uuid) {
+    /**
+     * Queue an event raised while the plugin is not loaded, so it reaches JS once the app starts.
+     * When the plugin is loaded the caller notifies it directly and nothing is queued here.
+     */
+    public static void addPendingEvent(Context context, String eventName, String callerId, String username, String media, String uuid) {
+        if (getInstance() != null) {
+            return;
+        }
+        if (context == null) {
+            Log.w("CallKitVoipPlugin", "No context, dropping pending event: " + eventName);
+            return;
+        }
         JSObject data = new JSObject();
         data.put("connectionId", callerId);
         data.put("username", username);
@@ -343,14 +444,24 @@ public class CallKitVoipPlugin extends Plugin {
         if (uuid != null) { 
             data.put("uuid", uuid); 
         }
-        data.put("eventName", eventName);
-        
+        if (PendingEventQueue.getInstance(context).add(eventName, data)) {
+            Log.d("CallKitVoipPlugin", "Plugin instance null, queued pending event: " + eventName + " for callerId: " + callerId);
+        }
+    }
+
+    /**
+     * Report a call that ended without the user acting on it: it rang out, or CallStateManager evicted it
+     * after it outlived its state TTL
+     */
+    static void notifyCallTerminated(Context context, String eventName, CallStateManager.CallConfig config) {
+        addPendingEvent(context, eventName, config.getCallerId(), config.getUsername(), config.getMedia(), config.getUuid());
+
         CallKitVoipPlugin instance = getInstance();
         if (instance != null) {
-            instance.pendingEvents.add(data);
-            Log.d("CallKitVoipPlugin", "Added pending event: " + eventName + " for callerId: " + callerId);
-        } else {
-            Log.d("CallKitVoipPlugin", "Plugin instance null, event will be queued when plugin loads: " + eventName);
+            instance.notifyEvent(eventName, config.getCallerId(), config.getUsername(), config.getMedia(), config.getUuid());
+            if (!CallStateManager.getInstance().hasActiveCalls()) {
+                instance.setInCallState(false);
+            }
         }
     }
 
@@ -358,6 +469,7 @@ public class CallKitVoipPlugin extends Plugin {
     public void setAppFullyLoaded(PluginCall call) {
         try {
             isAppFullyLoaded = true;
+            markActiveCalls(CallTimings.LISTENERS_READY);
             Log.d("CallKitVoipPlugin", "App marked as fully loaded - events will now be sent immediately");
             call.resolve();
         } catch (Exception e) {
@@ -366,13 +478,41 @@ public class CallKitVoipPlugin extends Plugin {
         }
     }
 
+    /**
+     * Timing marks (ms since the push arrived) for a call, or for the most recent call if no uuid is given
+     */
+    @PluginMethod
+    public void getCallTimings(PluginCall call) {
+        String uuid = call.getString("uuid", CallTimings.latestUuid());
+        java.util.Map<String, Long> marks = CallTimings.get(uuid);
+        Long origin = marks.containsKey(CallTimings.PUSH_RECEIVED) ? marks.get(CallTimings.PUSH_RECEIVED)
+            : marks.isEmpty() ? null : marks.values().iterator().next();
+
+        JSObject timings = new JSObject();
+        for (java.util.Map.Entry<String, Long> mark : marks.entrySet()) {
+            timings.put(mark.getKey(), mark.getValue() - origin);
+        }
+        JSObject result = new JSObject();
+        if (uuid != null) result.put("uuid", uuid);
+        result.put("marks", timings);
+        call.resolve(result);
+    }
+
+    // Record a process-level milestone against every call that is still in progress
+    private void markActiveCalls(String name) {
+        for (String uuid : CallStateManager.getInstance(context).getActiveCallUUIDs()) {
+            CallTimings.mark(uuid, name);
+            CallTimings.logBetween(uuid, CallTimings.ANSWER_TAPPED, name, "Answer to " + name);
+        }
+    }
+
     @PluginMethod
     public void wasLaunchedFromVoIP(PluginCall call) {
         try {
-            boolean launched = !pendingEvents.isEmpty();
+            boolean launched = !pendingEventQueue.isEmpty() || CallStateManager.getInstance(context).hasActiveCalls();
             
             if (launched) {
-                Log.d("CallKitVoipPlugin", "App was launched/resumed from VoIP call - pendingEvents: " + pendingEvents.size());
+                Log.d("CallKitVoipPlugin", "App was launched/resumed from VoIP call - pendingEvents: " + pendingEventQueue.size());
             } else {
                 Log.d("CallKitVoipPlugin", "App was not launched from VoIP call");
             }
@@ -386,34 +526,45 @@ public class CallKitVoipPlugin extends Plugin {
         }
     }
 
+    /**
+     * Drain the pending events and return them in one call, oldest first, as { events: [{ eventName, data }] }
+     */
+    @PluginMethod
+    public void getPendingEvents(PluginCall call) {
+        try {
+            java.util.List<PendingEventQueue.Event> pending = pendingEventQueue.drain();
+            JSArray events = new JSArray();
+            for (PendingEventQueue.Event event : pending) {
+                JSObject entry = new JSObject();
+                entry.put("eventName", event.eventName);
+                entry.put("data", event.data);
+                events.put(entry);
+            }
+            Log.d("CallKitVoipPlugin", "Delivering " + pending.size() + " pending events in one batch");
+            JSObject result = new JSObject();
+            result.put("events", events);
+            call.resolve(result);
+        } catch (Exception e) {
+            Log.e("CallKitVoipPlugin", "Failed to get pending events: " + e.getMessage());
+            call.reject("Failed to get pending events: " + e.getMessage());
+        }
+    }
+
     @PluginMethod
     public void replayPendingEvents(PluginCall call) {
         try {
-            if (pendingEvents.isEmpty()) {
+            java.util.List<PendingEventQueue.Event> eventsToReplay = pendingEventQueue.drain();
+            if (eventsToReplay.isEmpty()) {
                 Log.d("CallKitVoipPlugin", "No pending events to replay");
                 call.resolve();
                 return;
             }
             
-            java.util.List<JSObject> eventsToReplay = new java.util.ArrayList<>(pendingEvents);
-            pendingEvents.clear();
-            
             Log.d("CallKitVoipPlugin", "Replaying " + eventsToReplay.size() + " pending events");
             
-            for (JSObject event : eventsToReplay) {
-                String eventName = event.getString("eventName");
-                if (eventName != null) {
-                    JSObject eventData = new JSObject();
-                    for (java.util.Iterator<String> it = event.keys(); it.hasNext(); ) {
-                        String key = it.next();
-                        if (!"eventName".equals(key)) {
-                            eventData.put(key, event.get(key));
-                        }
-                    }
-                    
-                    Log.d("CallKitVoipPlugin", "Replaying event: " + eventName);
-                    notifyListeners(eventName, eventData);
-                }
+            for (PendingEventQueue.Event event : eventsToReplay) {
+                Log.d("CallKitVoipPlugin", "Replaying event: " + event.eventName);
+                notifyListeners(event.eventName, event.data);
             }
             
             call.resolve();
@@ -426,25 +577,20 @@ public class CallKitVoipPlugin extends Plugin {
     @PluginMethod
     public void endCall(PluginCall call) {
         try {
-            Intent serviceIntent = new Intent(context, CallNotificationService.class);
-            context.stopService(serviceIntent);
-            
-            android.app.NotificationManager notificationManager = 
-                (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-            if (notificationManager != null) {
-                notificationManager.cancelAll();
-            }
-            
-            CallStateManager.getInstance().clearAllCalls();
-            isInCall = false;
-            
-            if (audioManager != null) {
-                audioManager.setMode(AudioManager.MODE_NORMAL);
-                audioManager.setSpeakerphoneOn(false);
-                audioManager.abandonAudioFocus(audioFocusChangeListener);
+            String uuid = call.getString("uuid");
+            CallStateManager stateManager = CallStateManager.getInstance(context);
+            if (uuid != null) {
+                CallNotificationService.teardownCall(context, uuid);
+                Log.d("CallKitVoipPlugin", "Call ended: " + uuid);
+            } else {
+                for (String activeUuid : stateManager.getActiveCallUUIDs()) {
+                    CallNotificationService.teardownCall(context, activeUuid);
+                }
+                // Nothing may have been registered (e.g. after a crash); make sure the ring UI is gone
+                context.stopService(new Intent(context, CallNotificationService.class));
+                releaseCallAudio(context);
+                Log.d("CallKitVoipPlugin", "All calls ended and state cleaned up");
             }
-            
-            Log.d("CallKitVoipPlugin", "All calls ended and state cleaned up");
             call.resolve();
         } catch (Exception e) {
             Log.e("CallKitVoipPlugin", "Failed to end call: " + e.getMessage());
@@ -452,6 +598,107 @@ public class CallKitVoipPlugin extends Plugin {
         }
     }
 
+    /**
+     * Return the audio system to normal once no call needs it anymore
+     */
+    static void releaseCallAudio(Context context) {
+        CallKitVoipPlugin instance = getInstance();
+        AudioManager manager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        if (manager != null) {
+            manager.setMode(AudioManager.MODE_NORMAL);
+            manager.setSpeakerphoneOn(false);
+            manager.abandonAudioFocus(instance != null ? instance.audioFocusChangeListener : null);
+            // The microphone mute is system-wide; don't leave it on after the call
+            MuteController.setMuted(context, false);
+            Log.d("CallKitVoipPlugin", "Call audio released");
+        }
+        if (instance != null) {
+            instance.setInCallState(false);
+        }
+    }
+
+    @PluginMethod
+    public void hold(PluginCall call) {
+        setHeld(call, true);
+    }
+
+    @PluginMethod
+    public void unhold(PluginCall call) {
+        setHeld(call, false);
+    }
+
+    private void setHeld(PluginCall call, boolean held) {
+        try {
+            String uuid = call.getString("uuid", answeredCallUuid());
+            CallStateManager.CallConfig config = uuid != null ? CallStateManager.getInstance().getCallConfig(uuid) : null;
+            if (config == null || config.getState() != CallStateManager.CallState.ANSWERED) {
+                call.reject("No answered call to " + (held ? "hold" : "unhold"));
+                return;
+            }
+            TelecomCalls.setHeld(uuid, held);
+            notifyHoldChanged(context, uuid, held);
+            call.resolve();
+        } catch (Exception e) {
+            Log.e("CallKitVoipPlugin", "Failed to " + (held ? "hold" : "unhold") + " call: " + e.getMessage());
+            call.reject("Failed to " + (held ? "hold" : "unhold") + " call: " + e.getMessage());
+        }
+    }
+
+    private static String answeredCallUuid() {
+        CallStateManager stateManager = CallStateManager.getInstance();
+        for (String uuid : stateManager.getActiveCallUUIDs()) {
+            if (stateManager.getState(uuid) == CallStateManager.CallState.ANSWERED) {
+                return uuid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record a call's hold state and emit holdStateChanged if it changed
+     */
+    static void notifyHoldChanged(Context context, String uuid, boolean held) {
+        if (!CallStateManager.getInstance(context).setCallHeld(uuid, held)) {
+            return;
+        }
+        CallKitVoipPlugin instance = getInstance();
+        if (instance != null) {
+            JSObject data = new JSObject();
+            data.put("uuid", uuid);
+            data.put("isOnHold", held);
+            instance.notifyEventWithQueue("holdStateChanged", data);
+        }
+    }
+
+    /**
+     * Emit muteStateChanged; MuteController only calls this when the state really changed
+     */
+    static void notifyMuteChanged(boolean muted) {
+        CallKitVoipPlugin instance = getInstance();
+        if (instance != null) {
+            JSObject data = new JSObject();
+            data.put("isMuted", muted);
+            instance.notifyListeners("muteStateChanged", data);
+        }
+    }
+
+    @PluginMethod
+    public void setMuted(PluginCall call) {
+        Boolean muted = call.getBoolean("isMuted");
+        if (muted == null) {
+            call.reject("isMuted is required");
+            return;
+        }
+        try {
+            // Self-managed connections leave the microphone to the app, with or without Telecom
+            MuteController.setMuted(context, muted);
+            call.resolve();
+        } catch (Exception e) {
+            Log.e("CallKitVoipPlugin", "Failed to set mute state: " + e.getMessage());
+            call.reject("Failed to set mute state: " + e.getMessage());
+        }
+    }
+
     @PluginMethod
     public void startOutgoingCall(PluginCall call) {
         try {
@@ -464,9 +711,11 @@ public class CallKitVoipPlugin extends Plugin {
                 return;
             }
             
-            String uuid = CallStateManager.getInstance().generateUUID();
-            CallStateManager.getInstance().registerOutgoingCall(uuid, callerId, username, media);
+            CallStateManager stateManager = CallStateManager.getInstance(context);
+            String uuid = stateManager.generateUUID();
+            stateManager.registerOutgoingCall(uuid, callerId, username, media);
             isInCall = true;
+            TelecomCalls.placeOutgoingCall(context, uuid, callerId, media);
             
             Intent serviceIntent = new Intent(context, CallNotificationService.class);
             serviceIntent.putExtra("callerId", callerId);
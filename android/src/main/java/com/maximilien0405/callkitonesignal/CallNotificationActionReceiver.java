@@ -34,16 +34,12 @@ public class CallNotificationActionReceiver extends BroadcastReceiver {
     private void performClickAction(Context context, String action, String callerId, String username, String media, String uuid, String declineApiUrl) {
         Log.d("CallNotificationActionReceiver", "performClickAction: " + action);
 
-        if (action.equalsIgnoreCase("END_CALL")) {
-            context.stopService(new Intent(context, CallNotificationService.class));
-        }
-
         handleCallAction(context, action, callerId, username, media, uuid, declineApiUrl);
     }
 
     private void handleCallAction(Context context, String action, String callerId, String username, String media, String uuid, String declineApiUrl) {
         CallKitVoipPlugin plugin = CallKitVoipPlugin.getInstance();
-        CallStateManager stateManager = CallStateManager.getInstance();
+        CallStateManager stateManager = CallStateManager.getInstance(context);
 
         Log.d("CallNotificationActionReceiver", "Handling action: " + action);
         
@@ -55,14 +51,9 @@ public class CallNotificationActionReceiver extends BroadcastReceiver {
             
             if (uuid != null) {
                 stateManager.markCallDeclined(uuid);
-                stateManager.endCall(uuid);
-            }
-            
-            context.stopService(new Intent(context, CallNotificationService.class));
-            android.app.NotificationManager notificationManager = 
-                (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-            if (notificationManager != null) {
-                notificationManager.cancelAll();
+                CallNotificationService.teardownCall(context, uuid);
+            } else {
+                context.stopService(new Intent(context, CallNotificationService.class));
             }
             
             if (declineApiUrl != null && !declineApiUrl.isEmpty()) {
@@ -71,20 +62,29 @@ public class CallNotificationActionReceiver extends BroadcastReceiver {
                 Log.w("CallNotificationActionReceiver", "No decline API URL provided");
             }
         }
+        else if ("TOGGLE_MUTE".equalsIgnoreCase(action)) {
+            MuteController.setMuted(context, !MuteController.isMuted(context));
+        }
         else if ("END_CALL".equalsIgnoreCase(action)) {
-            if (uuid != null) stateManager.endCall(uuid);
+            if (uuid != null) {
+                CallNotificationService.teardownCall(context, uuid);
+            } else {
+                context.stopService(new Intent(context, CallNotificationService.class));
+            }
 
-            CallKitVoipPlugin.addPendingEvent("callEnded", callerId, username, media, uuid);
+            CallKitVoipPlugin.addPendingEvent(context, "callEnded", callerId, username, media, uuid);
             
             if (plugin != null) {
                 plugin.notifyEvent("callEnded", callerId, username, media, uuid);
-                plugin.setInCallState(false);
+                if (!stateManager.hasActiveCalls()) {
+                    plugin.setInCallState(false);
+                }
             }
         }
     }
 
     private void makeDeclineApiCall(String apiUrl) {
-        new Thread(() -> {
+        boolean queued = CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.BACKGROUND, "declineApiCall", () -> {
             try {
                 Log.d("CallNotificationActionReceiver", "Making decline API call to: " + apiUrl);
                 
@@ -108,7 +108,10 @@ public class CallNotificationActionReceiver extends BroadcastReceiver {
             } catch (Exception e) {
                 Log.e("CallNotificationActionReceiver", "Failed to make decline API call: " + e.getMessage());
             }
-        }).start();
+        });
+        if (!queued) {
+            Log.w("CallNotificationActionReceiver", "Decline API call dropped, background executor is saturated");
+        }
     }
 
 }
\ No newline at end of file
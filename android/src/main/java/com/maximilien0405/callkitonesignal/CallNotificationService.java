@@ -1,57 +1,67 @@
 package com.maximilien0405.callkitonesignal;
 
 import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.app.Application;
 import android.app.KeyguardManager;
 import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.AudioAttributes;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Vibrator;
-import android.provider.Settings;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import android.webkit.WebSettings;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.maximilien0405.callkitonesignal.R;
 
-import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class CallNotificationService extends Service {
-    private String INCOMING_CHANNEL_ID = "IncomingCallChannel";
-    private String INCOMING_CHANNEL_NAME = "Incoming Call Channel";
-    private String ONGOING_CHANNEL_ID = "OngoingCallChannel";
-    private String ONGOING_CHANNEL_NAME = "Ongoing Call Channel";
-    private MediaPlayer mediaPlayer;
-    private Vibrator mvibrator;
-
-    Timer timer = new Timer();
-    TimerTask task = new TimerTask() {
-        @Override
-        public void run() {
-            getApplicationContext().stopService(new Intent(getApplicationContext(), CallNotificationService.class));
-            timer.cancel();
-        }
-    };
+    private static final long AVATAR_UPDATE_DEADLINE_MS = 5000;
+
+    // Per-call notification ids are derived from the uuid; each call owns a block of PendingIntent request codes
+    private static final int NOTIFICATION_ID_BASE = 0x10000;
+    private static final int NOTIFICATION_ID_RANGE = 0x100000;
+    private static final int REQUEST_CODES_PER_CALL = 8;
+    private static final int REQUEST_RECEIVE = 0;
+    private static final int REQUEST_CANCEL = 1;
+    private static final int REQUEST_END = 2;
+    private static final int REQUEST_FULLSCREEN = 3;
+    private static final int REQUEST_CONTENT = 4;
+    private static final int REQUEST_MUTE = 5;
+    private static final long ONGOING_UPDATE_INTERVAL_MS = 1000;
+
+    // uuid -> notification id of every call notification currently posted
+    private static final ConcurrentHashMap<String, Integer> activeNotifications = new ConcurrentHashMap<>();
+
+    private static volatile CallNotificationService runningInstance;
+
+    // Notifications this instance posted, so another call can take over the foreground slot
+    private final Map<Integer, PostedNotification> postedNotifications = new HashMap<>();
+    private boolean foregroundStarted = false;
+    private int foregroundNotificationId = 0;
+    // Ongoing notification re-post throttling, keyed by notification id
+    private final Map<Integer, Long> lastOngoingPostAt = new HashMap<>();
+    private final Map<Integer, Runnable> pendingOngoingPosts = new HashMap<>();
+    private RingEngine ringEngine;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static volatile boolean webViewWarmed = false;
+    private boolean stopped = false;
+    private final AnswerTapMarker answerTapMarker = new AnswerTapMarker();
 
 
     @Nullable
@@ -63,14 +73,23 @@ public class CallNotificationService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        createChannel();
+        runningInstance = this;
+        CallStateManager.getInstance(getApplicationContext());
+        NotificationChannels.ensure(this);
+        ringEngine = new RingEngine(this);
+        // Preload the default ringtone while the first notification is being built
+        CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.RING_CRITICAL, "prepareRingtone", () -> ringEngine.prepare(null));
+        ((Application) getApplicationContext()).registerActivityLifecycleCallbacks(answerTapMarker);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Bundle data = null;
         String username="", callerId="", media="", uuid="", profilePictureUrl="", notificationText="", notificationSummary="", declineApiUrl="";
-        int NOTIFICATION_ID=120;
+        int notificationId = 0;
+        long ringTimeoutMs = RingTimeoutScheduler.DEFAULT_TIMEOUT_MS;
+        String ringtone = null;
+        long[] vibrationPattern = null;
         Log.d("CallNotificationService", "=== onStartCommand called ===");
 
         boolean isOutgoing = false;
@@ -79,14 +98,32 @@ public class CallNotificationService extends Service {
         if (intent != null && intent.getExtras() != null) {
         
             data = intent.getExtras();
-            callerId = intent.getStringExtra("callerId");
-            username = intent.getStringExtra("Username");
-            media = intent.getStringExtra("media");
-            uuid = intent.getStringExtra("uuid");
-            profilePictureUrl = intent.getStringExtra("profilePictureUrl");
-            notificationText = intent.getStringExtra("notificationText");
-            notificationSummary = intent.getStringExtra("notificationSummary");
-            declineApiUrl = intent.getStringExtra("declineApiUrl");
+            CallPayload payload = CallPayload.fromIntent(intent);
+            if (payload != null) {
+                callerId = payload.callerId;
+                username = payload.username;
+                media = payload.media;
+                uuid = payload.uuid;
+                profilePictureUrl = payload.profilePictureUrl;
+                notificationText = payload.notificationText;
+                notificationSummary = payload.notificationSummary;
+                declineApiUrl = payload.declineApiUrl;
+                ringtone = payload.ringtone;
+                vibrationPattern = payload.vibrationPattern;
+                if (payload.ringTimeoutSeconds > 0) {
+                    ringTimeoutMs = payload.ringTimeoutSeconds * 1000L;
+                }
+            } else {
+                // Outgoing calls and call UI updates still come with per-field extras
+                callerId = intent.getStringExtra("callerId");
+                username = intent.getStringExtra("Username");
+                media = intent.getStringExtra("media");
+                uuid = intent.getStringExtra("uuid");
+                profilePictureUrl = intent.getStringExtra("profilePictureUrl");
+                notificationText = intent.getStringExtra("notificationText");
+                notificationSummary = intent.getStringExtra("notificationSummary");
+                declineApiUrl = intent.getStringExtra("declineApiUrl");
+            }
             isOutgoing = intent.getBooleanExtra("isOutgoing", false);
             isUpdate = intent.getBooleanExtra("isUpdate", false);
             
@@ -104,31 +141,31 @@ public class CallNotificationService extends Service {
                 CallStateManager.getInstance().registerIncomingCall(uuid, callerId, username, media, profilePictureUrl);
                 Log.d("CallNotificationService", "Registered incoming call - callerId: " + callerId + ", uuid: " + uuid);
             }
+            notificationId = notificationIdFor(uuid);
         }
         try {
             NotificationCompat.Builder notificationBuilder = null;
             
             if (data != null) {
-                Uri ringUri = Settings.System.DEFAULT_RINGTONE_URI;
                 String notificationContent = "Incoming call request";
                 
                 Log.d("CallNotificationService", "Creating notification - Title: " + username + ", Content: " + notificationContent + ", isOutgoing: " + isOutgoing + ", isUpdate: " + isUpdate);
                 
                 if (isOutgoing || isUpdate) {
                     Log.d("CallNotificationService", "Creating ongoing call notification");
-                    notificationBuilder = createOngoingCallNotification(username, callerId, media, uuid, NOTIFICATION_ID);
+                    notificationBuilder = createOngoingCallNotification(username, callerId, media, uuid, notificationId);
                     // For outgoing calls, we need microphone access
                     if (notificationBuilder != null) {
                         Notification ongoingNotification = notificationBuilder.build();
-                        startForegroundService(NOTIFICATION_ID, ongoingNotification, true);
+                        postOngoingNotification(notificationId, ongoingNotification);
                     }
                 } else {
                     Log.d("CallNotificationService", "Creating incoming call notification");
-                    notificationBuilder = createIncomingCallNotification(username, callerId, media, uuid, NOTIFICATION_ID, ringUri, profilePictureUrl, notificationText, notificationSummary, declineApiUrl);
+                    notificationBuilder = createIncomingCallNotification(username, callerId, media, uuid, notificationId, profilePictureUrl, notificationText, notificationSummary, declineApiUrl, ringTimeoutMs);
                 }
                 
                 if (notificationBuilder == null) {
-                    Log.d("CallNotificationService", "Notification builder not immediately available (likely waiting for image)");
+                    Log.w("CallNotificationService", "Notification builder could not be created");
                 }
             } else {
                 Log.w("CallNotificationService", "Intent data is null, cannot create notification");
@@ -137,12 +174,14 @@ public class CallNotificationService extends Service {
             // Only start foreground service here if we haven't already started it for outgoing calls
             if (notificationBuilder != null && !isOutgoing && !isUpdate) {
                 Notification incomingCallNotification = notificationBuilder.build();
-                timer.schedule(task, 30000);
                 // For incoming calls, we don't need microphone access initially
-                startForegroundService(NOTIFICATION_ID, incomingCallNotification, false);
-            } else if (notificationBuilder == null && !isOutgoing && !isUpdate) {
-                Log.d("CallNotificationService", "Deferring startForeground until image load completes");
-                timer.schedule(task, 30000);
+                postCallNotification(notificationId, incomingCallNotification, false);
+                ringEngine.ring(RingEngine.resolveSound(this, ringtone), vibrationPattern);
+                CallTimings.mark(uuid, CallTimings.RING_POSTED);
+                CallTimings.logBetween(uuid, CallTimings.PUSH_RECEIVED, CallTimings.RING_POSTED,
+                    "Push-to-ring latency (" + CallKitConfig.getColdStartMode(this) + ", plugin " + (CallKitVoipPlugin.getInstance() != null ? "loaded" : "not loaded") + ")");
+                prewarmWebView(uuid);
+                RingTimeoutScheduler.schedule(this, uuid, ringTimeoutMs);
             }
 
         
@@ -156,8 +195,237 @@ public class CallNotificationService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        releaseMediaPlayer();
+        stopped = true;
+        if (runningInstance == this) {
+            runningInstance = null;
+        }
+        ((Application) getApplicationContext()).unregisterActivityLifecycleCallbacks(answerTapMarker);
+        mainHandler.removeCallbacksAndMessages(null);
+        cancelActiveNotifications();
         releaseVibration();
+        releaseMediaPlayer();
+    }
+
+    /**
+     * With prewarmOnRing, load the WebView provider on a background thread while the ring shows, so a cold-start
+     * answer does not pay for it before the bridge comes up. Runs once per process and only if the app is not running.
+     */
+    private void prewarmWebView(String uuid) {
+        if (webViewWarmed || CallKitVoipPlugin.getInstance() != null || !CallKitConfig.isPrewarmOnRing(this)) {
+            return;
+        }
+        webViewWarmed = true;
+        Context appContext = getApplicationContext();
+        CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.BACKGROUND, "prewarmWebView", () -> {
+            try {
+                WebSettings.getDefaultUserAgent(appContext);
+                CallTimings.mark(uuid, CallTimings.WEBVIEW_WARM);
+                CallTimings.logBetween(uuid, CallTimings.RING_POSTED, CallTimings.WEBVIEW_WARM, "WebView pre-warm after ring");
+            } catch (Exception e) {
+                Log.w("CallNotificationService", "Failed to pre-warm WebView: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Get the notification id for a call, allocating one derived from its uuid if needed.
+     * Collisions with another active call are resolved by probing the next id.
+     */
+    static int notificationIdFor(String uuid) {
+        Integer existing = activeNotifications.get(uuid);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (activeNotifications) {
+            existing = activeNotifications.get(uuid);
+            if (existing != null) {
+                return existing;
+            }
+            int offset = (uuid.hashCode() & 0x7FFFFFFF) % NOTIFICATION_ID_RANGE;
+            while (activeNotifications.containsValue(NOTIFICATION_ID_BASE + offset)) {
+                offset = (offset + 1) % NOTIFICATION_ID_RANGE;
+            }
+            int notificationId = NOTIFICATION_ID_BASE + offset;
+            activeNotifications.put(uuid, notificationId);
+            return notificationId;
+        }
+    }
+
+    /**
+     * PendingIntent request code for one of a call's actions, unique across concurrent calls
+     */
+    static int requestCodeFor(int notificationId, int action) {
+        return notificationId * REQUEST_CODES_PER_CALL + action;
+    }
+
+    /**
+     * Get the notification id of an active call, or null if it has none
+     */
+    static Integer getActiveNotificationId(String uuid) {
+        return uuid != null ? activeNotifications.get(uuid) : null;
+    }
+
+    /**
+     * The first call promotes the service to the foreground; later calls are posted alongside it
+     */
+    private void postCallNotification(int notificationId, Notification notification, boolean needsMicrophone) {
+        postedNotifications.put(notificationId, new PostedNotification(notification, needsMicrophone));
+        if (!foregroundStarted || notificationId == foregroundNotificationId) {
+            startForegroundService(notificationId, notification, needsMicrophone);
+            foregroundStarted = true;
+            foregroundNotificationId = notificationId;
+            return;
+        }
+        NotificationManager notificationManager = getSystemService(NotificationManager.class);
+        if (notificationManager != null) {
+            notificationManager.notify(notificationId, notification);
+            Log.d("CallNotificationService", "Posted additional call notification: " + notificationId);
+        }
+    }
+
+    /**
+     * Start the service to ring an incoming call
+     */
+    static void startRinging(Context context, CallPayload payload) {
+        Intent serviceIntent = new Intent(context, CallNotificationService.class);
+        serviceIntent.putExtra(CallPayload.EXTRA, payload);
+        serviceIntent.setPackage(context.getPackageName());
+        try {
+            context.startForegroundService(serviceIntent);
+            Log.d("CallNotificationService", "CallNotificationService started successfully");
+        } catch (Throwable t) {
+            Log.e("CallNotificationService", "Failed to start CallNotificationService", t);
+        }
+    }
+
+    /**
+     * Stop the ringtone and vibration but keep the call ringing, e.g. after a volume key press
+     */
+    static void silenceRinging() {
+        CallNotificationService service = runningInstance;
+        if (service != null) {
+            service.mainHandler.post(() -> {
+                if (!service.stopped) {
+                    service.ringEngine.stop();
+                }
+            });
+        }
+    }
+
+    /**
+     * End a single call: update its state, remove only its notification, stop the service if it was the last
+     * call, and release call audio only if no other call still needs it.
+     */
+    public static void teardownCall(Context context, String uuid) {
+        if (uuid == null) {
+            return;
+        }
+        teardownCall(context, uuid, CallStateManager.getInstance(context).getState(uuid));
+    }
+
+    /**
+     * End a single call that has already been moved out of the state it ended in, e.g. a ringing call
+     * that timed out. endedIn decides the Telecom disconnect cause and whether call audio was in use.
+     */
+    static void teardownCall(Context context, String uuid, CallStateManager.CallState endedIn) {
+        if (uuid == null) {
+            return;
+        }
+        CallStateManager stateManager = CallStateManager.getInstance(context);
+        stateManager.endCall(uuid);
+        TelecomCalls.disconnect(uuid, endedIn);
+        dismissCallNotification(context, uuid);
+
+        boolean hadAudio = endedIn == CallStateManager.CallState.ANSWERED || endedIn == CallStateManager.CallState.OUTGOING;
+        if (hadAudio && !stateManager.hasCallsInState(CallStateManager.CallState.ANSWERED, CallStateManager.CallState.OUTGOING)) {
+            CallKitVoipPlugin.releaseCallAudio(context);
+        }
+        Log.d("CallNotificationService", "Call torn down: " + uuid);
+    }
+
+    /**
+     * Remove a call's notification without touching its state (e.g. once it has been answered).
+     * The service leaves the foreground only when no call notifications remain.
+     */
+    public static void dismissCallNotification(Context context, String uuid) {
+        RingTimeoutScheduler.cancel(uuid);
+        Integer notificationId = uuid != null ? activeNotifications.remove(uuid) : null;
+        CallNotificationService service = runningInstance;
+        if (notificationId != null) {
+            NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+            if (notificationManager != null) {
+                notificationManager.cancel(notificationId);
+            }
+            Log.d("CallNotificationService", "Dismissed call notification " + notificationId + " for call: " + uuid);
+        }
+        if (service != null) {
+            int removedId = notificationId != null ? notificationId : 0;
+            service.mainHandler.post(() -> service.onCallNotificationRemoved(removedId));
+        } else if (activeNotifications.isEmpty()) {
+            context.stopService(new Intent(context, CallNotificationService.class));
+        }
+    }
+
+    private void onCallNotificationRemoved(int notificationId) {
+        if (stopped) {
+            return;
+        }
+        postedNotifications.remove(notificationId);
+        lastOngoingPostAt.remove(notificationId);
+        Runnable pendingPost = pendingOngoingPosts.remove(notificationId);
+        if (pendingPost != null) {
+            mainHandler.removeCallbacks(pendingPost);
+        }
+        if (!CallStateManager.getInstance().hasCallsInState(CallStateManager.CallState.INCOMING)) {
+            ringEngine.stop();
+        }
+        if (activeNotifications.isEmpty()) {
+            Log.d("CallNotificationService", "No call notifications remain, stopping service");
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            return;
+        }
+        if (notificationId != foregroundNotificationId) {
+            return;
+        }
+        // The foreground notification belonged to the removed call; hand the slot to a remaining call
+        for (Integer remainingId : activeNotifications.values()) {
+            PostedNotification posted = postedNotifications.get(remainingId);
+            if (posted != null) {
+                startForegroundService(remainingId, posted.notification, posted.needsMicrophone);
+                foregroundNotificationId = remainingId;
+                NotificationManager notificationManager = getSystemService(NotificationManager.class);
+                if (notificationManager != null) {
+                    notificationManager.cancel(notificationId);
+                }
+                Log.d("CallNotificationService", "Foreground moved to call notification: " + remainingId);
+                return;
+            }
+        }
+        Log.d("CallNotificationService", "No remaining notification can hold the foreground, stopping service");
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    private static final class PostedNotification {
+        final Notification notification;
+        final boolean needsMicrophone;
+
+        PostedNotification(Notification notification, boolean needsMicrophone) {
+            this.notification = notification;
+            this.needsMicrophone = needsMicrophone;
+        }
+    }
+
+    // Notifications posted with notify() outlive the service, so they are cancelled explicitly
+    private void cancelActiveNotifications() {
+        NotificationManager notificationManager = getSystemService(NotificationManager.class);
+        for (Integer notificationId : activeNotifications.values()) {
+            if (notificationManager != null) {
+                notificationManager.cancel(notificationId);
+            }
+        }
+        activeNotifications.clear();
     }
 
     private void startForegroundService(int notificationId, Notification notification, boolean needsMicrophone) {
@@ -264,103 +532,21 @@ public class CallNotificationService extends Service {
         }
     }
 
-    public void createChannel() {
-        Log.d("createChannel", "called");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            try {
-                NotificationManager notificationManager = Objects.requireNonNull(getApplicationContext().getSystemService(NotificationManager.class));
-                Uri ringUri = Settings.System.DEFAULT_RINGTONE_URI;
-                
-                NotificationChannel incomingChannel = new NotificationChannel(INCOMING_CHANNEL_ID, INCOMING_CHANNEL_NAME, NotificationManager.IMPORTANCE_HIGH);
-                incomingChannel.setDescription("Incoming Call Notifications");
-                incomingChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
-                incomingChannel.setSound(ringUri,
-                        new AudioAttributes.Builder().setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                                .setLegacyStreamType(AudioManager.STREAM_RING)
-                                .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION).build());
-                notificationManager.createNotificationChannel(incomingChannel);
-                
-                NotificationChannel ongoingChannel = new NotificationChannel(ONGOING_CHANNEL_ID, ONGOING_CHANNEL_NAME, NotificationManager.IMPORTANCE_LOW);
-                ongoingChannel.setDescription("Ongoing Call Notifications");
-                ongoingChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
-                ongoingChannel.setSound(null, null);
-                notificationManager.createNotificationChannel(ongoingChannel);
-                
-                Log.d("createChannel", "Both notification channels created successfully");
-                
-            } catch (Exception e) {
-                Log.e("createChannel", "Failed to create notification channels", e);
-                e.printStackTrace();
-            }
-        }
-    }
-
     public void releaseVibration(){
-        try {
-            if(mvibrator!=null){
-                if (mvibrator.hasVibrator()) {
-                    mvibrator.cancel();
-                }
-                mvibrator=null;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (ringEngine != null) {
+            ringEngine.stopVibration();
         }
     }
 
     private void releaseMediaPlayer() {
-        try {
-            if (mediaPlayer != null) {
-                if (mediaPlayer.isPlaying()) {
-                    mediaPlayer.stop();
-                    mediaPlayer.reset();
-                    mediaPlayer.release();
-                }
-                mediaPlayer = null;
-            }
-
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (ringEngine != null) {
+            ringEngine.release();
         }
     }
 
     private void loadProfilePicture(String imageUrl, ProfilePictureCallback callback) {
-        if (imageUrl == null || imageUrl.isEmpty()) {
-            callback.onProfilePictureLoaded(null);
-            return;
-        }
-
-        new Thread(() -> {
-            try {
-                URL url = new URL(imageUrl);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setDoInput(true);
-                connection.setConnectTimeout(5000); // 5 second timeout
-                connection.setReadTimeout(5000);
-                connection.connect();
-
-                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    InputStream input = connection.getInputStream();
-                    Bitmap bitmap = BitmapFactory.decodeStream(input);
-                    input.close();
-                    connection.disconnect();
-                    
-                    if (bitmap != null) {
-                        int size = (int) (64 * getResources().getDisplayMetrics().density);
-                        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, size, size, true);
-                        callback.onProfilePictureLoaded(resizedBitmap);
-                    } else {
-                        callback.onProfilePictureLoaded(null);
-                    }
-                } else {
-                    Log.w("CallNotificationService", "Failed to load profile picture, HTTP: " + connection.getResponseCode());
-                    callback.onProfilePictureLoaded(null);
-                }
-            } catch (Exception e) {
-                Log.e("CallNotificationService", "Error loading profile picture: " + e.getMessage());
-                callback.onProfilePictureLoaded(null);
-            }
-        }).start();
+        int size = (int) (64 * getResources().getDisplayMetrics().density);
+        AvatarCache.getInstance(getApplicationContext()).load(imageUrl, size, callback::onProfilePictureLoaded);
     }
 
     private interface ProfilePictureCallback {
@@ -368,185 +554,295 @@ public class CallNotificationService extends Service {
     }
 
 
-    private NotificationCompat.Builder createNotificationBuilder(String title, String bigText, String summaryText, Bitmap profilePicture, int notificationId, PendingIntent receiveIntent, PendingIntent cancelIntent,  PendingIntent fullScreenIntent, PendingIntent contentIntent, Uri ringUri) {
+    private NotificationCompat.Builder createIncomingCallNotification(String username, String callerId, String media, String uuid, int notificationId, String profilePictureUrl, String notificationText, String notificationSummary, String declineApiUrl, long ringTimeoutMs) {
         try {
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, INCOMING_CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(bigText)
-                .setSmallIcon(R.drawable.ic_stat_call)
-                .setPriority(NotificationCompat.PRIORITY_MAX)
-                .setCategory(NotificationCompat.CATEGORY_CALL)
-                .addAction(R.drawable.ic_stat_call, getString(R.string.reject), cancelIntent)
-                .addAction(R.drawable.ic_stat_call, getString(R.string.answer), receiveIntent)
-                .setAutoCancel(true)
-                .setSound(ringUri)
-                .setFullScreenIntent(fullScreenIntent, true)
-                .setOngoing(true)
-                .setTimeoutAfter(30000)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setDefaults(NotificationCompat.DEFAULT_ALL)
-                .setContentIntent(contentIntent)
-                .setStyle(new NotificationCompat.BigTextStyle()
-                    .bigText(bigText)
-                    .setSummaryText(summaryText));
-
-            if (profilePicture != null) {
-                builder.setLargeIcon(profilePicture);
-                Log.d("CallNotificationService", "Profile picture set in notification");
-            }
+            Context appContext = getApplicationContext();
+            IncomingCallTemplate template = IncomingCallTemplate.getInstance(appContext);
+            Bundle callExtras = IncomingCallTemplate.callExtras(callerId, username, media, uuid);
 
-            return builder;
-        } catch (Exception e) {
-            Log.e("CallNotificationService", "Failed to create notification builder: " + e.getMessage());
-            return null;
-        }
-    }
-
-    private NotificationCompat.Builder createIncomingCallNotification(String username, String callerId, String media, String uuid, int notificationId, Uri ringUri, String profilePictureUrl, String notificationText, String notificationSummary, String declineApiUrl) {
-        try {
-            Intent receiveCallAction = getApplicationContext().getPackageManager()
-                    .getLaunchIntentForPackage(getApplicationContext().getPackageName());
+            Intent receiveCallAction = template.newLaunchIntent();
             if (receiveCallAction != null) {
                 receiveCallAction.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | 
                                         Intent.FLAG_ACTIVITY_CLEAR_TOP |
                                         Intent.FLAG_ACTIVITY_SINGLE_TOP |
                                         Intent.FLAG_ACTIVITY_BROUGHT_TO_FRONT);
+                receiveCallAction.putExtras(callExtras);
                 receiveCallAction.putExtra("CALL_EVENT", "callAnswered");
-                receiveCallAction.putExtra("callerId", callerId);
-                receiveCallAction.putExtra("Username", username);
-                receiveCallAction.putExtra("media", media);
-                receiveCallAction.putExtra("uuid", uuid);
                 receiveCallAction.putExtra("fromNotification", true);
                 receiveCallAction.putExtra("ACTION_TYPE", "RECEIVE_CALL");
             }
 
-            Intent cancelCallAction = new Intent(getApplicationContext(), CallNotificationActionReceiver.class);
+            Intent cancelCallAction = new Intent(appContext, CallNotificationActionReceiver.class);
             cancelCallAction.setAction("ConstantApp.CALL_DECLINE_ACTION");
+            cancelCallAction.putExtras(callExtras);
             cancelCallAction.putExtra("ACTION_TYPE", "CANCEL_CALL");
-            cancelCallAction.putExtra("callerId", callerId);
-            cancelCallAction.putExtra("Username", username);
-            cancelCallAction.putExtra("media", media);
-            cancelCallAction.putExtra("uuid", uuid);
             cancelCallAction.putExtra("declineApiUrl", declineApiUrl);
 
             Log.d("CallNotificationService", "Creating incoming call notification for callerId: " + callerId);
-            PendingIntent receiveCallPendingIntent = PendingIntent.getActivity(getApplicationContext(), 1200, receiveCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-            PendingIntent cancelCallPendingIntent = PendingIntent.getBroadcast(getApplicationContext(), 1201, cancelCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            PendingIntent receiveCallPendingIntent = PendingIntent.getActivity(appContext, requestCodeFor(notificationId, REQUEST_RECEIVE), receiveCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            PendingIntent cancelCallPendingIntent = PendingIntent.getBroadcast(appContext, requestCodeFor(notificationId, REQUEST_CANCEL), cancelCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-            android.content.Intent fullScreenIntent;
-            fullScreenIntent = new android.content.Intent(getApplicationContext(), CallNotificationActionReceiver.class);
+            Intent fullScreenIntent = new Intent(appContext, CallNotificationActionReceiver.class);
             fullScreenIntent.setAction("ConstantApp.CALL_FULLSCREEN_ACTION");
+            fullScreenIntent.putExtras(callExtras);
             fullScreenIntent.putExtra("ACTION_TYPE", "DIALOG_CALL");
-            fullScreenIntent.putExtra("callerId", callerId);
-            fullScreenIntent.putExtra("Username", username);
-            fullScreenIntent.putExtra("media", media);
-            fullScreenIntent.putExtra("uuid", uuid);
 
-            PendingIntent fullScreenPendingIntent = PendingIntent.getBroadcast(getApplicationContext(), 1203, fullScreenIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            PendingIntent fullScreenPendingIntent = PendingIntent.getBroadcast(appContext, requestCodeFor(notificationId, REQUEST_FULLSCREEN), fullScreenIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-            android.content.Intent contentIntent;
-            contentIntent = getApplicationContext().getPackageManager().getLaunchIntentForPackage(getApplicationContext().getPackageName());
+            Intent contentIntent = template.newLaunchIntent();
+            PendingIntent contentPendingIntent;
             if (contentIntent != null) {
-                contentIntent.addFlags(android.content.Intent.FLAG_ACTIVITY_NEW_TASK |
-                                     android.content.Intent.FLAG_ACTIVITY_CLEAR_TOP |
-                                     android.content.Intent.FLAG_ACTIVITY_SINGLE_TOP |
-                                     android.content.Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
-                contentIntent.putExtra("callerId", callerId);
-                contentIntent.putExtra("Username", username);
-                contentIntent.putExtra("media", media);
-                contentIntent.putExtra("uuid", uuid);
+                contentIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
+                                     Intent.FLAG_ACTIVITY_CLEAR_TOP |
+                                     Intent.FLAG_ACTIVITY_SINGLE_TOP |
+                                     Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+                contentIntent.putExtras(callExtras);
                 contentIntent.putExtra("fromNotification", true);
                 contentIntent.putExtra("CALL_EVENT", "incoming");
+                contentPendingIntent = PendingIntent.getActivity(appContext, requestCodeFor(notificationId, REQUEST_CONTENT), contentIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
             } else {
-                contentIntent = new android.content.Intent(getApplicationContext(), CallNotificationActionReceiver.class);
-                contentIntent.setAction("ConstantApp.CALL_FULLSCREEN_ACTION");
-                contentIntent.putExtra("ACTION_TYPE", "DIALOG_CALL");
-                contentIntent.putExtra("callerId", callerId);
-                contentIntent.putExtra("Username", username);
-                contentIntent.putExtra("media", media);
-                contentIntent.putExtra("uuid", uuid);
+                contentIntent = new Intent(fullScreenIntent);
+                contentPendingIntent = PendingIntent.getBroadcast(appContext, requestCodeFor(notificationId, REQUEST_CONTENT), contentIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
             }
 
-            PendingIntent contentPendingIntent;
-            if (contentIntent.getAction() == null) {
-                contentPendingIntent = PendingIntent.getActivity(getApplicationContext(), 1204, contentIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-            } else {
-                contentPendingIntent = PendingIntent.getBroadcast(getApplicationContext(), 1204, contentIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-            }
-
-            String notificationTitle = username != null ? username : "Unknown Caller";
-            String bigText = notificationText != null ? notificationText : "Incoming call request";
-            String summaryText = notificationSummary != null ? notificationSummary : "Tap to answer or decline";
-            if (profilePictureUrl != null && !profilePictureUrl.isEmpty()) {
+            String bigText = notificationText != null ? notificationText : IncomingCallTemplate.DEFAULT_TEXT;
+            String summaryText = notificationSummary != null ? notificationSummary : IncomingCallTemplate.DEFAULT_SUMMARY;
+
+            // Post right away with the cached avatar (or the caller's initials), and patch the real one in once it arrives
+            int avatarSize = (int) (64 * getResources().getDisplayMetrics().density);
+            Bitmap cachedAvatar = AvatarCache.getInstance(appContext).getCached(profilePictureUrl, avatarSize);
+            Bitmap largeIcon = cachedAvatar != null ? cachedAvatar : InitialsAvatarRenderer.render(username, callerId, avatarSize);
+            boolean video = "video".equals(media);
+            NotificationCompat.Builder builder = template.newBuilder(username, bigText, summaryText, largeIcon, video, ringTimeoutMs,
+                                                                     receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent,
+                                                                     contentPendingIntent);
+            if (builder != null && cachedAvatar == null && profilePictureUrl != null && !profilePictureUrl.isEmpty()) {
                 Log.d("CallNotificationService", "Loading profile picture from: " + profilePictureUrl);
-                loadProfilePicture(profilePictureUrl, new ProfilePictureCallback() {
-                    @Override
-                    public void onProfilePictureLoaded(Bitmap bitmap) {
-                        try {
-                            NotificationCompat.Builder builder = createNotificationBuilder(notificationTitle, bigText, summaryText, bitmap, notificationId, receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent, contentPendingIntent, ringUri);
-                            if (builder == null) {
-                                builder = createNotificationBuilder(notificationTitle, bigText, summaryText, null, notificationId, receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent, contentPendingIntent, ringUri);
-                            }
-                            if (builder != null) {
-                                Notification notification = builder.build();
-                                // For incoming calls, we don't need microphone access initially
-                                startForegroundService(notificationId, notification, false);
-                                Log.d("CallNotificationService", "Foreground notification started after image load");
-                            }
-                        } catch (Exception e) {
-                            Log.e("CallNotificationService", "Failed to create and start foreground notification: " + e.getMessage());
-                            try {
-                                NotificationCompat.Builder fallback = createNotificationBuilder(notificationTitle, bigText, summaryText, null, notificationId, receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent, contentPendingIntent, ringUri);
-                                if (fallback != null) {
-                                    // For incoming calls, we don't need microphone access initially
-                                    startForegroundService(notificationId, fallback.build(), false);
-                                    Log.d("CallNotificationService", "Foreground notification started without image due to error");
-                                }
-                            } catch (Exception ex) {
-                                Log.e("CallNotificationService", "Failed to start fallback foreground notification: " + ex.getMessage());
-                            }
-                        }
+                long deadline = SystemClock.elapsedRealtime() + AVATAR_UPDATE_DEADLINE_MS;
+                loadProfilePicture(profilePictureUrl, bitmap -> {
+                    if (bitmap != null) {
+                        // CallStyle takes the avatar from the caller Person, so the notification is rebuilt around it
+                        mainHandler.post(() -> updateIncomingCallAvatar(
+                            template.newBuilder(username, bigText, summaryText, bitmap, video, ringTimeoutMs,
+                                                receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent,
+                                                contentPendingIntent),
+                            notificationId, uuid, deadline));
                     }
                 });
-                return null;
-            } else {
-                return createNotificationBuilder(notificationTitle, bigText, summaryText, null, notificationId,
-                                               receiveCallPendingIntent, cancelCallPendingIntent, fullScreenPendingIntent,
-                                               contentPendingIntent, ringUri);
             }
+            return builder;
         } catch (Exception e) {
             Log.e("CallNotificationService", "Failed to create incoming call notification", e);
             return null;
         }
     }
 
+    /**
+     * Re-post the ringing notification with the caller's avatar, unless the call stopped ringing or the deadline passed
+     */
+    private void updateIncomingCallAvatar(NotificationCompat.Builder builder, int notificationId, String uuid, long deadline) {
+        try {
+            if (stopped) {
+                return;
+            }
+            if (SystemClock.elapsedRealtime() > deadline) {
+                Log.d("CallNotificationService", "Profile picture arrived after the update deadline, skipping");
+                return;
+            }
+            if (uuid != null && CallStateManager.getInstance().getState(uuid) != CallStateManager.CallState.INCOMING) {
+                Log.d("CallNotificationService", "Call no longer ringing, skipping profile picture update");
+                return;
+            }
+            NotificationManager notificationManager = getSystemService(NotificationManager.class);
+            if (notificationManager == null) {
+                return;
+            }
+            builder.setOnlyAlertOnce(true);
+            notificationManager.notify(notificationId, builder.build());
+            Log.d("CallNotificationService", "Profile picture patched into incoming call notification");
+        } catch (Exception e) {
+            Log.e("CallNotificationService", "Failed to update notification with profile picture: " + e.getMessage());
+        }
+    }
+
     private NotificationCompat.Builder createOngoingCallNotification(String username, String callerId, String media, String uuid, int notificationId) {
         try {
-            Intent endCallAction = new Intent(getApplicationContext(), CallNotificationActionReceiver.class);
+            Context appContext = getApplicationContext();
+            Bundle callExtras = IncomingCallTemplate.callExtras(callerId, username, media, uuid);
+
+            Intent endCallAction = new Intent(appContext, CallNotificationActionReceiver.class);
             endCallAction.setAction("ConstantApp.CALL_END_ACTION");
+            endCallAction.putExtras(callExtras);
             endCallAction.putExtra("ACTION_TYPE", "END_CALL");
             endCallAction.putExtra("NOTIFICATION_ID", notificationId);
-            endCallAction.putExtra("callerId", callerId);
-            endCallAction.putExtra("Username", username);
-            endCallAction.putExtra("media", media);
-            endCallAction.putExtra("uuid", uuid);
+
+            Intent muteAction = new Intent(appContext, CallNotificationActionReceiver.class);
+            muteAction.setAction("ConstantApp.CALL_MUTE_ACTION");
+            muteAction.putExtras(callExtras);
+            muteAction.putExtra("ACTION_TYPE", "TOGGLE_MUTE");
 
             Log.d("CallNotificationService", "Creating ongoing call notification for callerId: " + callerId);
-            PendingIntent endCallPendingIntent = PendingIntent.getBroadcast(getApplicationContext(), 1202, endCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            PendingIntent endCallPendingIntent = PendingIntent.getBroadcast(appContext, requestCodeFor(notificationId, REQUEST_END), endCallAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            PendingIntent mutePendingIntent = PendingIntent.getBroadcast(appContext, requestCodeFor(notificationId, REQUEST_MUTE), muteAction, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-            String ongoingTitle = username != null ? username : "Unknown Caller";
-            
-            return new NotificationCompat.Builder(this, ONGOING_CHANNEL_ID)
+            String ongoingTitle = IncomingCallTemplate.displayName(username);
+            String muteLabel = getString(MuteController.isMuted(appContext) ? R.string.unmute : R.string.mute);
+
+            // The system ticks the chronometer, so the notification is not re-posted to show the duration
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, NotificationChannels.ONGOING_CHANNEL_ID)
                 .setContentTitle(ongoingTitle)
                 .setSmallIcon(R.drawable.ic_stat_call)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
                 .setCategory(NotificationCompat.CATEGORY_CALL)
-                .addAction(R.drawable.ic_stat_call, getString(R.string.end_call), endCallPendingIntent)
+                .setWhen(callStartedAt(uuid))
+                .setShowWhen(true)
+                .setUsesChronometer(true)
+                .setOnlyAlertOnce(true)
                 .setOngoing(true)
                 .setAutoCancel(false);
+
+            if (!applyOngoingCallStyle(builder, ongoingTitle, uuid, username, callerId, media, notificationId, endCallPendingIntent)) {
+                builder.addAction(R.drawable.ic_stat_call, getString(R.string.end_call), endCallPendingIntent);
+            }
+            builder.addAction(R.drawable.ic_stat_call, muteLabel, mutePendingIntent);
+            return builder;
         } catch (Exception e) {
             Log.e("CallNotificationService", "Failed to create ongoing call notification", e);
             return null;
         }
     }
-}
\ No newline at end of file
+
+    // CallStyle brings its own hang-up action; false means the caller falls back to the plain layout
+    private boolean applyOngoingCallStyle(NotificationCompat.Builder builder, String title, String uuid, String username, String callerId, String media, int notificationId, PendingIntent endCallPendingIntent) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || !canUseCallStyle(notificationId)) {
+            return false;
+        }
+        try {
+            builder.setStyle(NotificationCompat.CallStyle.forOngoingCall(IncomingCallTemplate.caller(title, callerAvatar(uuid, username, callerId)), endCallPendingIntent)
+                .setIsVideo("video".equals(media)));
+            return true;
+        } catch (IllegalArgumentException e) {
+            Log.w("CallNotificationService", "Failed to apply CallStyle, using the plain layout: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * A CallStyle notification without a full-screen intent is only allowed as the foreground service notification
+     */
+    private boolean canUseCallStyle(int notificationId) {
+        return !foregroundStarted || notificationId == foregroundNotificationId;
+    }
+
+    /**
+     * Wall-clock start of the call's duration: when it was answered, or when it was placed
+     */
+    private static long callStartedAt(String uuid) {
+        CallStateManager.CallConfig config = uuid != null ? CallStateManager.getInstance().getCallConfig(uuid) : null;
+        if (config == null) {
+            return System.currentTimeMillis();
+        }
+        return config.getState() == CallStateManager.CallState.ANSWERED ? config.getLastTransitionAt() : config.getCreatedAt();
+    }
+
+    private Bitmap callerAvatar(String uuid, String username, String callerId) {
+        int avatarSize = (int) (64 * getResources().getDisplayMetrics().density);
+        CallStateManager.CallConfig config = uuid != null ? CallStateManager.getInstance().getCallConfig(uuid) : null;
+        Bitmap cached = config != null ? AvatarCache.getInstance(getApplicationContext()).getCached(config.getProfilePictureUrl(), avatarSize) : null;
+        return cached != null ? cached : InitialsAvatarRenderer.render(username, callerId, avatarSize);
+    }
+
+    /**
+     * Post an ongoing call notification, coalescing re-posts that come faster than ONGOING_UPDATE_INTERVAL_MS
+     * into one post of the latest notification
+     */
+    private void postOngoingNotification(int notificationId, Notification notification) {
+        Runnable pending = pendingOngoingPosts.remove(notificationId);
+        if (pending != null) {
+            mainHandler.removeCallbacks(pending);
+        }
+        Long lastPostedAt = lastOngoingPostAt.get(notificationId);
+        long wait = lastPostedAt == null ? 0 : lastPostedAt + ONGOING_UPDATE_INTERVAL_MS - SystemClock.elapsedRealtime();
+        if (wait <= 0) {
+            lastOngoingPostAt.put(notificationId, SystemClock.elapsedRealtime());
+            postCallNotification(notificationId, notification, true);
+            return;
+        }
+        Runnable post = () -> {
+            pendingOngoingPosts.remove(notificationId);
+            if (stopped || !activeNotifications.containsValue(notificationId)) {
+                return;
+            }
+            lastOngoingPostAt.put(notificationId, SystemClock.elapsedRealtime());
+            postCallNotification(notificationId, notification, true);
+        };
+        pendingOngoingPosts.put(notificationId, post);
+        mainHandler.postDelayed(post, wait);
+        Log.d("CallNotificationService", "Ongoing notification update deferred by " + wait + "ms");
+    }
+
+    /**
+     * Rebuild a call's ongoing notification, e.g. after its mute state changed
+     */
+    static void refreshOngoingNotification(String uuid) {
+        CallNotificationService service = runningInstance;
+        if (service == null || uuid == null) {
+            return;
+        }
+        service.mainHandler.post(() -> service.repostOngoingNotification(uuid));
+    }
+
+    private void repostOngoingNotification(String uuid) {
+        Integer notificationId = activeNotifications.get(uuid);
+        CallStateManager.CallConfig config = CallStateManager.getInstance().getCallConfig(uuid);
+        if (stopped || notificationId == null || config == null || config.getState() == CallStateManager.CallState.INCOMING) {
+            return;
+        }
+        NotificationCompat.Builder builder = createOngoingCallNotification(config.getUsername(), config.getCallerId(), config.getMedia(), uuid, notificationId);
+        if (builder != null) {
+            postOngoingNotification(notificationId, builder.build());
+        }
+    }
+
+    /**
+     * Marks answerTapped when the notification's answer action starts the activity, before the activity builds
+     * its bridge. The answer action opens the activity directly, so this is the first code that sees the tap.
+     */
+    private static final class AnswerTapMarker implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityPreCreated(Activity activity, Bundle savedInstanceState) {
+            mark(activity);
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            // onActivityPreCreated is only dispatched from API 29; the first mark wins
+            mark(activity);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityPaused(Activity activity) {}
+
+        @Override
+        public void onActivityStopped(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {}
+
+        private static void mark(Activity activity) {
+            Intent intent = activity.getIntent();
+            if (intent != null && "RECEIVE_CALL".equals(intent.getStringExtra("ACTION_TYPE"))) {
+                CallTimings.mark(intent.getStringExtra("uuid"), CallTimings.ANSWER_TAPPED);
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import java.util.Iterator;
+import java.util.Locale;
+import org.json.JSONObject;
+
+/**
+ * A call push, parsed once from the OneSignal additional data.
+ *
+ * Fields are read in a single pass over the JSON keys, trimmed to sane lengths and validated (media is audio or
+ * video, URLs must be http(s)), and the call uuid is resolved at parse time. The result travels to
+ * CallNotificationService as one Parcelable extra instead of being re-serialized field by field.
+ */
+public final class CallPayload implements Parcelable {
+    public static final String EXTRA = "callPayload";
+
+    static final int MAX_ID_LENGTH = 128;
+    static final int MAX_NAME_LENGTH = 256;
+    static final int MAX_TEXT_LENGTH = 512;
+    static final int MAX_URL_LENGTH = 2048;
+    static final int MIN_RING_TIMEOUT_SECONDS = 5;
+    static final int MAX_RING_TIMEOUT_SECONDS = 300;
+    static final int MAX_VIBRATION_STEPS = 32;
+    static final long MAX_VIBRATION_STEP_MS = 10_000;
+
+    public final String uuid;
+    /** Whether uuid came from the push rather than being generated on-device */
+    public final boolean uuidFromBackend;
+    public final String callId;
+    public final String callerId;
+    public final String username;
+    public final String media;
+    public final String profilePictureUrl;
+    public final String notificationText;
+    public final String notificationSummary;
+    public final String declineApiUrl;
+    public final String timestamp;
+    public final boolean cancelCall;
+    /** Seconds the call may ring before it is reported as missed; 0 uses the default */
+    public final int ringTimeoutSeconds;
+    /** res/raw name or content:// URI of the ringtone; null for the default */
+    public final String ringtone;
+    /** Vibration waveform (off/on durations in ms, repeated); null for the default */
+    public final long[] vibrationPattern;
+
+    private CallPayload(
+        String uuid,
+        boolean uuidFromBackend,
+        String callId,
+        String callerId,
+        String username,
+        String media,
+        String profilePictureUrl,
+        String notificationText,
+        String notificationSummary,
+        String declineApiUrl,
+        String timestamp,
+        boolean cancelCall,
+        int ringTimeoutSeconds,
+        String ringtone,
+        long[] vibrationPattern
+    ) {
+        this.uuid = uuid;
+        this.uuidFromBackend = uuidFromBackend;
+        this.callId = callId;
+        this.callerId = callerId;
+        this.username = username;
+        this.media = media;
+        this.profilePictureUrl = profilePictureUrl;
+        this.notificationText = notificationText;
+        this.notificationSummary = notificationSummary;
+        this.declineApiUrl = declineApiUrl;
+        this.timestamp = timestamp;
+        this.cancelCall = cancelCall;
+        this.ringTimeoutSeconds = ringTimeoutSeconds;
+        this.ringtone = ringtone;
+        this.vibrationPattern = vibrationPattern;
+    }
+
+    /**
+     * Parse the additional data of a push. Returns null if it is not a call push (no usable callerId).
+     */
+    public static CallPayload fromJson(JSONObject data) {
+        if (data == null) {
+            return null;
+        }
+        String uuid = null, callId = null, callerId = null, username = null, media = null, profilePictureUrl = null;
+        String notificationText = null, notificationSummary = null, declineApiUrl = null, timestamp = null;
+        boolean cancelCall = false;
+        int ringTimeoutSeconds = 0;
+        String ringtone = null;
+        long[] vibrationPattern = null;
+
+        Iterator<String> keys = data.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = data.opt(key);
+            switch (key) {
+                case "uuid": uuid = limit(value, MAX_ID_LENGTH); break;
+                case "callId": callId = limit(value, MAX_ID_LENGTH); break;
+                case "callerId": callerId = limit(value, MAX_ID_LENGTH); break;
+                case "Username": username = limit(value, MAX_NAME_LENGTH); break;
+                case "media": media = limit(value, MAX_ID_LENGTH); break;
+                case "profilePictureUrl": profilePictureUrl = url(value); break;
+                case "notificationText": notificationText = limit(value, MAX_TEXT_LENGTH); break;
+                case "notificationSummary": notificationSummary = limit(value, MAX_TEXT_LENGTH); break;
+                case "declineApiUrl": declineApiUrl = url(value); break;
+                case "timestamp": timestamp = limit(value, MAX_ID_LENGTH); break;
+                case "cancelCall": cancelCall = Boolean.TRUE.equals(value) || "true".equalsIgnoreCase(String.valueOf(value)); break;
+                case "ringTimeout": ringTimeoutSeconds = seconds(value); break;
+                case "ringtone": ringtone = limit(value, MAX_ID_LENGTH); break;
+                case "vibrationPattern": vibrationPattern = pattern(value); break;
+                default: break;
+            }
+        }
+
+        if (callerId == null || callerId.isEmpty()) {
+            return null;
+        }
+        String backendUuid = CallIds.normalize(uuid);
+        if (backendUuid == null) {
+            backendUuid = CallIds.normalize(callId);
+        }
+        return new CallPayload(
+            backendUuid != null ? backendUuid : CallIds.newUuid(),
+            backendUuid != null,
+            callId,
+            callerId,
+            username != null ? username : "",
+            "video".equalsIgnoreCase(media) ? "video" : "audio",
+            profilePictureUrl,
+            notificationText,
+            notificationSummary,
+            declineApiUrl,
+            timestamp,
+            cancelCall,
+            ringTimeoutSeconds,
+            ringtone,
+            vibrationPattern
+        );
+    }
+
+    /**
+     * The payload carried by an intent, or null if it was started with the legacy per-field extras
+     */
+    public static CallPayload fromIntent(Intent intent) {
+        if (intent == null || !intent.hasExtra(EXTRA)) {
+            return null;
+        }
+        intent.setExtrasClassLoader(CallPayload.class.getClassLoader());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return intent.getParcelableExtra(EXTRA, CallPayload.class);
+        }
+        return intent.getParcelableExtra(EXTRA);
+    }
+
+    /**
+     * The key PushDeduplicator uses for this push
+     */
+    public String dedupKey(String notificationId) {
+        return PushDeduplicator.keyFor(callId, callerId, timestamp, notificationId);
+    }
+
+    private static String limit(Object value, int maxLength) {
+        if (value == null || value == JSONObject.NULL) {
+            return null;
+        }
+        String text = String.valueOf(value).trim();
+        return text.length() > maxLength ? text.substring(0, maxLength) : text;
+    }
+
+    private static int seconds(Object value) {
+        int seconds;
+        if (value instanceof Number) {
+            seconds = ((Number) value).intValue();
+        } else {
+            try {
+                seconds = Integer.parseInt(String.valueOf(value).trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        if (seconds <= 0) {
+            return 0;
+        }
+        return Math.max(MIN_RING_TIMEOUT_SECONDS, Math.min(MAX_RING_TIMEOUT_SECONDS, seconds));
+    }
+
+    // A JSON array or comma-separated list of durations; anything malformed falls back to the default pattern
+    private static long[] pattern(Object value) {
+        String[] steps;
+        if (value instanceof org.json.JSONArray) {
+            org.json.JSONArray array = (org.json.JSONArray) value;
+            steps = new String[array.length()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = array.optString(i);
+            }
+        } else if (value instanceof String) {
+            steps = ((String) value).split(",");
+        } else {
+            return null;
+        }
+        if (steps.length < 2 || steps.length > MAX_VIBRATION_STEPS) {
+            return null;
+        }
+        long[] pattern = new long[steps.length];
+        long total = 0;
+        for (int i = 0; i < steps.length; i++) {
+            try {
+                pattern[i] = Long.parseLong(steps[i].trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (pattern[i] < 0 || pattern[i] > MAX_VIBRATION_STEP_MS) {
+                return null;
+            }
+            total += pattern[i];
+        }
+        return total > 0 ? pattern : null;
+    }
+
+    private static String url(Object value) {
+        String text = limit(value, MAX_URL_LENGTH + 1);
+        if (text == null || text.length() > MAX_URL_LENGTH) {
+            return null;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        return lower.startsWith("https://") || lower.startsWith("http://") ? text : null;
+    }
+
+    private CallPayload(Parcel in) {
+        uuid = in.readString();
+        uuidFromBackend = in.readInt() != 0;
+        callId = in.readString();
+        callerId = in.readString();
+        username = in.readString();
+        media = in.readString();
+        profilePictureUrl = in.readString();
+        notificationText = in.readString();
+        notificationSummary = in.readString();
+        declineApiUrl = in.readString();
+        timestamp = in.readString();
+        cancelCall = in.readInt() != 0;
+        ringTimeoutSeconds = in.readInt();
+        ringtone = in.readString();
+        vibrationPattern = in.createLongArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(uuid);
+        out.writeInt(uuidFromBackend ? 1 : 0);
+        out.writeString(callId);
+        out.writeString(callerId);
+        out.writeString(username);
+        out.writeString(media);
+        out.writeString(profilePictureUrl);
+        out.writeString(notificationText);
+        out.writeString(notificationSummary);
+        out.writeString(declineApiUrl);
+        out.writeString(timestamp);
+        out.writeInt(cancelCall ? 1 : 0);
+        out.writeInt(ringTimeoutSeconds);
+        out.writeString(ringtone);
+        out.writeLongArray(vibrationPattern);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<CallPayload> CREATOR = new Creator<CallPayload>() {
+        @Override
+        public CallPayload createFromParcel(Parcel in) {
+            return new CallPayload(in);
+        }
+
+        @Override
+        public CallPayload[] newArray(int size) {
+            return new CallPayload[size];
+        }
+    };
+}
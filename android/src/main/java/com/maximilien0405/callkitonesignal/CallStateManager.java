@@ -1,15 +1,26 @@
 package com.maximilien0405.callkitonesignal;
 
+import android.content.Context;
 import android.util.Log;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Manages call states and configurations in a thread-safe manner
+ * Manages call states and configurations in a thread-safe manner.
+ * Reads are lock-free; registrations, state transitions and removals take lock, so each change and its journal
+ * record happen in the same order.
  */
 public class CallStateManager {
-    private static CallStateManager instance;
+    private static volatile CallStateManager instance;
     private static final Object lock = new Object();
     
     // Call states
@@ -18,20 +29,54 @@ public class CallStateManager {
         ANSWERED,
         DECLINED,
         ENDED,
-        OUTGOING
+        OUTGOING;
+
+        /**
+         * Whether a call in this state may move to the given state
+         */
+        public boolean canTransitionTo(CallState next) {
+            switch (this) {
+                case INCOMING:
+                    return next == ANSWERED || next == DECLINED || next == ENDED;
+                case OUTGOING:
+                    return next == ANSWERED || next == ENDED;
+                case ANSWERED:
+                case DECLINED:
+                    return next == ENDED;
+                default:
+                    return false;
+            }
+        }
     }
     
     // Call configuration storage
     private final ConcurrentHashMap<String, CallConfig> callConfigs = new ConcurrentHashMap<>();
-    
-    // Call state tracking sets
-    private final CopyOnWriteArraySet<String> incomingCalls = new CopyOnWriteArraySet<>();
-    private final CopyOnWriteArraySet<String> answeredCalls = new CopyOnWriteArraySet<>();
-    private final CopyOnWriteArraySet<String> outgoingCalls = new CopyOnWriteArraySet<>();
-    private final CopyOnWriteArraySet<String> canceledCalls = new CopyOnWriteArraySet<>();
+
+    // Secondary index: callerId -> uuids of the calls registered for that caller
+    private final ConcurrentHashMap<String, Set<String>> callerIndex = new ConcurrentHashMap<>();
+
+    // Persistent journal, attached the first time a Context is available. Every registry change and its
+    // journal append happen under lock, so records are queued in the order the changes were made.
+    private volatile CallJournal journal;
+    private volatile Context appContext;
+    private volatile boolean journalAttached = false;
+    private final List<CallConfig> restoredCalls = new ArrayList<>();
+
+    // Time-based eviction of calls that never received endCall, per state (<= 0 disables eviction).
+    // Set from the plugin thread and read by the sweep thread.
+    private static final long EVICTION_SWEEP_INTERVAL_MS = 5000;
+    private final AtomicLongArray stateTtlMillis = new AtomicLongArray(CallState.values().length);
+    private ScheduledExecutorService evictionScheduler;
+    private ScheduledFuture<?> evictionSweep;
     
     private CallStateManager() {
         // Private constructor for singleton
+        stateTtlMillis.set(CallState.INCOMING.ordinal(), TimeUnit.SECONDS.toMillis(60));
+        stateTtlMillis.set(CallState.OUTGOING.ordinal(), TimeUnit.MINUTES.toMillis(2));
+        // Answered calls can legitimately last for hours; apps opt in to evicting them through answeredCallTtl
+        stateTtlMillis.set(CallState.ANSWERED.ordinal(), 0);
+        stateTtlMillis.set(CallState.DECLINED.ordinal(), TimeUnit.SECONDS.toMillis(10));
+        stateTtlMillis.set(CallState.ENDED.ordinal(), TimeUnit.SECONDS.toMillis(5));
     }
     
     public static CallStateManager getInstance() {
@@ -44,21 +89,69 @@ public class CallStateManager {
         }
         return instance;
     }
+
+    /**
+     * Get the singleton and, on first use with a Context, replay the persistent call journal
+     * so calls registered before the process was killed are restored.
+     */
+    public static CallStateManager getInstance(Context context) {
+        CallStateManager manager = getInstance();
+        if (!manager.journalAttached && context != null) {
+            manager.attachJournal(context.getApplicationContext());
+        }
+        return manager;
+    }
+
+    private void attachJournal(Context context) {
+        synchronized (lock) {
+            if (journalAttached) {
+                return;
+            }
+            journalAttached = true;
+            appContext = context;
+            CallJournal opened = CallJournal.open(context, () -> new ArrayList<>(callConfigs.values()));
+            if (opened == null) {
+                return;
+            }
+            for (CallConfig config : opened.replay()) {
+                if (callConfigs.putIfAbsent(config.getUuid(), config) == null) {
+                    indexCall(config.getCallerId(), config.getUuid());
+                    restoredCalls.add(config);
+                    Log.d("CallStateManager", "Restored call from journal: " + config.getUuid() + " state: " + config.getState());
+                }
+            }
+            journal = opened;
+            if (!callConfigs.isEmpty()) {
+                scheduleEviction();
+            }
+            // Rewrite the journal from the merged registry so calls registered before attaching are persisted too
+            opened.compact();
+        }
+    }
+
+    /**
+     * Return the calls restored from the journal since the last call, then forget them
+     */
+    public List<CallConfig> drainRestoredCalls() {
+        synchronized (lock) {
+            List<CallConfig> drained = new ArrayList<>(restoredCalls);
+            restoredCalls.clear();
+            return drained;
+        }
+    }
     
     /**
-     * Generate a new UUID for a call
+     * Generate a new time-ordered UUID for a call
      */
     public String generateUUID() {
-        return UUID.randomUUID().toString();
+        return CallIds.newUuid();
     }
     
     /**
      * Register a new incoming call
      */
     public void registerIncomingCall(String uuid, String callerId, String username, String media) {
-        CallConfig config = new CallConfig(uuid, callerId, username, media);
-        callConfigs.put(uuid, config);
-        incomingCalls.add(uuid);
+        registerCall(new CallConfig(uuid, callerId, username, media, null, CallState.INCOMING));
         Log.d("CallStateManager", "Registered incoming call: " + uuid + " for callerId: " + callerId);
     }
 
@@ -66,9 +159,7 @@ public class CallStateManager {
      * Register a new incoming call with profile picture
      */
     public void registerIncomingCall(String uuid, String callerId, String username, String media, String profilePictureUrl) {
-        CallConfig config = new CallConfig(uuid, callerId, username, media, profilePictureUrl);
-        callConfigs.put(uuid, config);
-        incomingCalls.add(uuid);
+        registerCall(new CallConfig(uuid, callerId, username, media, profilePictureUrl, CallState.INCOMING));
         Log.d("CallStateManager", "Registered incoming call: " + uuid + " for callerId: " + callerId);
     }
     
@@ -76,33 +167,127 @@ public class CallStateManager {
      * Register a new outgoing call
      */
     public void registerOutgoingCall(String uuid, String callerId, String username, String media) {
-        CallConfig config = new CallConfig(uuid, callerId, username, media);
-        callConfigs.put(uuid, config);
-        outgoingCalls.add(uuid);
+        registerCall(new CallConfig(uuid, callerId, username, media, null, CallState.OUTGOING));
         Log.d("CallStateManager", "Registered outgoing call: " + uuid + " for callerId: " + callerId);
     }
+
+    /**
+     * Store a call configuration and keep the callerId index in sync.
+     * Re-registering a uuid under a different callerId moves its index entry.
+     */
+    private void registerCall(CallConfig config) {
+        synchronized (lock) {
+            CallConfig previous = callConfigs.put(config.getUuid(), config);
+            if (previous != null && !Objects.equals(previous.getCallerId(), config.getCallerId())) {
+                unindexCall(previous.getCallerId(), previous.getUuid());
+            }
+            indexCall(config.getCallerId(), config.getUuid());
+            CallJournal current = journal;
+            if (current != null) {
+                current.appendRegister(config);
+            }
+        }
+        scheduleEviction();
+    }
+
+    private void indexCall(String callerId, String uuid) {
+        if (callerId == null || uuid == null) {
+            return;
+        }
+        callerIndex.compute(callerId, (key, uuids) -> {
+            if (uuids == null) {
+                uuids = ConcurrentHashMap.newKeySet();
+            }
+            uuids.add(uuid);
+            return uuids;
+        });
+    }
+
+    private void unindexCall(String callerId, String uuid) {
+        if (callerId == null || uuid == null) {
+            return;
+        }
+        // Removing the last uuid drops the entry atomically so readers never see an empty bucket linger
+        callerIndex.computeIfPresent(callerId, (key, uuids) -> {
+            uuids.remove(uuid);
+            return uuids.isEmpty() ? null : uuids;
+        });
+    }
+    
+    /**
+     * Get the current state of a call, or null if the call is not registered
+     */
+    public CallState getState(String uuid) {
+        CallConfig config = uuid != null ? callConfigs.get(uuid) : null;
+        return config != null ? config.getState() : null;
+    }
+
+    /**
+     * Atomically move a call from an expected state to a new one.
+     * Fails if the call is unknown, is no longer in the expected state, or the transition is not allowed.
+     */
+    public boolean compareAndSetState(String uuid, CallState expected, CallState next) {
+        CallConfig config = uuid != null ? callConfigs.get(uuid) : null;
+        if (config == null || expected == null || !expected.canTransitionTo(next)) {
+            return false;
+        }
+        synchronized (lock) {
+            if (config.getState() != expected) {
+                return false;
+            }
+            config.moveTo(next);
+            journalState(config, next);
+        }
+        return true;
+    }
+
+    /**
+     * Move a call to a new state from whatever state it is currently in, if that transition is allowed
+     */
+    public boolean transitionTo(String uuid, CallState next) {
+        CallConfig config = uuid != null ? callConfigs.get(uuid) : null;
+        if (config == null) {
+            return false;
+        }
+        synchronized (lock) {
+            CallState current = config.getState();
+            if (!current.canTransitionTo(next)) {
+                Log.w("CallStateManager", "Rejected transition " + current + " -> " + next + " for call: " + uuid);
+                return false;
+            }
+            config.moveTo(next);
+            journalState(config, next);
+            return true;
+        }
+    }
+
+    private void journalState(CallConfig config, CallState state) {
+        CallJournal current = journal;
+        if (current != null) {
+            current.appendState(config.getUuid(), state, config.getLastTransitionAt());
+        }
+    }
     
     /**
      * Mark a call as answered
      */
-    public void markCallAnswered(String uuid) {
-        if (uuid != null && callConfigs.containsKey(uuid)) {
-            answeredCalls.add(uuid);
-            incomingCalls.remove(uuid);
-            outgoingCalls.remove(uuid);
+    public boolean markCallAnswered(String uuid) {
+        boolean answered = transitionTo(uuid, CallState.ANSWERED);
+        if (answered) {
             Log.d("CallStateManager", "Call marked as answered: " + uuid);
         }
+        return answered;
     }
     
     /**
      * Mark a call as declined
      */
-    public void markCallDeclined(String uuid) {
-        if (uuid != null && callConfigs.containsKey(uuid)) {
-            canceledCalls.add(uuid);
-            incomingCalls.remove(uuid);
+    public boolean markCallDeclined(String uuid) {
+        boolean declined = compareAndSetState(uuid, CallState.INCOMING, CallState.DECLINED);
+        if (declined) {
             Log.d("CallStateManager", "Call marked as declined: " + uuid);
         }
+        return declined;
     }
     
     /**
@@ -110,15 +295,42 @@ public class CallStateManager {
      */
     public void endCall(String uuid) {
         if (uuid != null) {
-            answeredCalls.remove(uuid);
-            incomingCalls.remove(uuid);
-            outgoingCalls.remove(uuid);
-            canceledCalls.remove(uuid);
-            callConfigs.remove(uuid);
+            synchronized (lock) {
+                CallState state = getState(uuid);
+                // Calls claimed by a ring timeout or eviction are already ENDED
+                if (state != null && state != CallState.ENDED) {
+                    transitionTo(uuid, CallState.ENDED);
+                }
+                CallConfig removed = callConfigs.remove(uuid);
+                if (removed != null) {
+                    unindexCall(removed.getCallerId(), uuid);
+                    CallJournal current = journal;
+                    if (current != null) {
+                        if (callConfigs.isEmpty()) {
+                            current.compact();
+                        } else {
+                            current.appendRemove(uuid);
+                        }
+                    }
+                }
+            }
             Log.d("CallStateManager", "Call ended and cleaned up: " + uuid);
         }
     }
     
+    /**
+     * Put an answered call on hold or take it off hold. Returns true if its hold state changed.
+     */
+    public boolean setCallHeld(String uuid, boolean held) {
+        CallConfig config = uuid != null ? callConfigs.get(uuid) : null;
+        if (config == null || config.getState() != CallState.ANSWERED || config.isHeld() == held) {
+            return false;
+        }
+        config.setHeld(held);
+        Log.d("CallStateManager", "Call " + (held ? "held" : "resumed") + ": " + uuid);
+        return true;
+    }
+
     /**
      * Get call configuration by UUID
      */
@@ -130,8 +342,16 @@ public class CallStateManager {
      * Get call configuration by callerId
      */
     public CallConfig getCallConfigByCallerId(String callerId) {
-        for (CallConfig config : callConfigs.values()) {
-            if (config.getCallerId().equals(callerId)) {
+        if (callerId == null) {
+            return null;
+        }
+        Set<String> uuids = callerIndex.get(callerId);
+        if (uuids == null) {
+            return null;
+        }
+        for (String uuid : uuids) {
+            CallConfig config = callConfigs.get(uuid);
+            if (config != null) {
                 return config;
             }
         }
@@ -142,27 +362,33 @@ public class CallStateManager {
      * Get UUID by callerId
      */
     public String getUUIDByCallerId(String callerId) {
-        for (String uuid : callConfigs.keySet()) {
-            CallConfig config = callConfigs.get(uuid);
-            if (config != null && config.getCallerId().equals(callerId)) {
-                return uuid;
-            }
+        CallConfig config = getCallConfigByCallerId(callerId);
+        return config != null ? config.getUuid() : null;
+    }
+
+    /**
+     * Get every call UUID currently registered for a callerId
+     */
+    public Set<String> getUUIDsByCallerId(String callerId) {
+        if (callerId == null) {
+            return Collections.emptySet();
         }
-        return null;
+        Set<String> uuids = callerIndex.get(callerId);
+        return uuids != null ? Collections.unmodifiableSet(uuids) : Collections.emptySet();
     }
     
     /**
      * Check if call was answered before ending
      */
     public boolean wasCallAnswered(String uuid) {
-        return answeredCalls.contains(uuid);
+        return getState(uuid) == CallState.ANSWERED;
     }
     
     /**
      * Check if call was incoming
      */
     public boolean wasCallIncoming(String uuid) {
-        return incomingCalls.contains(uuid);
+        return getState(uuid) == CallState.INCOMING;
     }
     
     /**
@@ -172,6 +398,28 @@ public class CallStateManager {
         return !callConfigs.isEmpty();
     }
     
+    /**
+     * Check if any registered call is in one of the given states
+     */
+    public boolean hasCallsInState(CallState... states) {
+        for (CallConfig config : callConfigs.values()) {
+            CallState state = config.getState();
+            for (CallState candidate : states) {
+                if (state == candidate) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the UUIDs of all registered calls
+     */
+    public List<String> getActiveCallUUIDs() {
+        return new ArrayList<>(callConfigs.keySet());
+    }
+    
     /**
      * Get count of active calls
      */
@@ -183,14 +431,105 @@ public class CallStateManager {
      * Clear all call state (use with caution)
      */
     public void clearAllCalls() {
-        incomingCalls.clear();
-        answeredCalls.clear();
-        outgoingCalls.clear();
-        canceledCalls.clear();
-        callConfigs.clear();
+        synchronized (lock) {
+            callConfigs.clear();
+            callerIndex.clear();
+            CallJournal current = journal;
+            if (current != null) {
+                current.compact();
+            }
+        }
         Log.d("CallStateManager", "All call state cleared");
     }
     
+    /**
+     * Set how long a call may stay in the given state before it is evicted.
+     * A value of zero or less disables eviction for that state.
+     */
+    public void setStateTtl(CallState state, long ttlMillis) {
+        stateTtlMillis.set(state.ordinal(), ttlMillis);
+        Log.d("CallStateManager", "TTL for " + state + " set to " + ttlMillis + "ms");
+    }
+
+    /**
+     * Get the eviction TTL for the given state
+     */
+    public long getStateTtl(CallState state) {
+        return stateTtlMillis.get(state.ordinal());
+    }
+
+    /**
+     * Start the shared sweep if it is not already running
+     */
+    private void scheduleEviction() {
+        synchronized (lock) {
+            if (evictionSweep != null && !evictionSweep.isDone()) {
+                return;
+            }
+            if (evictionScheduler == null) {
+                evictionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "CallKit-eviction");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            evictionSweep = evictionScheduler.scheduleWithFixedDelay(
+                () -> evictExpiredCalls(System.currentTimeMillis()), EVICTION_SWEEP_INTERVAL_MS, EVICTION_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Evict every call that has outlived its state's TTL as of the given wall-clock time
+     */
+    void evictExpiredCalls(long now) {
+        try {
+            for (CallConfig config : callConfigs.values()) {
+                // State and transition time are read together, so a call that just moved is judged by its new state
+                CallConfig.Transition transition = config.getTransition();
+                long ttl = stateTtlMillis.get(transition.state.ordinal());
+                if (ttl > 0 && now - transition.at > ttl) {
+                    evictCall(config, transition);
+                }
+            }
+        } catch (Exception e) {
+            Log.e("CallStateManager", "Failed to evict expired calls: " + e.getMessage());
+        }
+        synchronized (lock) {
+            // Stop sweeping once the registry is empty; the next registration restarts it
+            if (callConfigs.isEmpty() && evictionSweep != null) {
+                evictionSweep.cancel(false);
+                evictionSweep = null;
+            }
+        }
+    }
+
+    private void evictCall(CallConfig config, CallConfig.Transition sampled) {
+        CallState state = sampled.state;
+        synchronized (lock) {
+            // Only evict if nobody moved or removed the call since we sampled it, and claim it in the same step
+            if (callConfigs.get(config.getUuid()) != config || config.getTransition() != sampled) {
+                return;
+            }
+            if (state != CallState.ENDED) {
+                config.moveTo(CallState.ENDED);
+                journalState(config, CallState.ENDED);
+            }
+        }
+        Log.w("CallStateManager", "Evicting stale call " + config.getUuid() + " in state " + state
+            + " (last transition " + (System.currentTimeMillis() - sampled.at) + "ms ago)");
+        Context context = appContext;
+        if (context != null) {
+            // Same teardown as every other removal: Telecom connection, notification and call audio
+            CallNotificationService.teardownCall(context, config.getUuid(), state);
+        } else {
+            endCall(config.getUuid());
+        }
+        String eventName = state == CallState.INCOMING ? "callMissed" : "callEnded";
+        if (state != CallState.DECLINED && state != CallState.ENDED) {
+            CallKitVoipPlugin.notifyCallTerminated(appContext, eventName, config);
+        }
+    }
+    
     /**
      * Inner class to store call configuration
      */
@@ -200,21 +539,44 @@ public class CallStateManager {
         private final String username;
         private String media; // Not final so it can be updated
         private final String profilePictureUrl;
+        private final long createdAt;
+        // Replaced as a whole, so the state and the time it was entered are always read together
+        private volatile Transition transition;
+        private volatile boolean held;
+
+        /**
+         * A state and the wall-clock time the call entered it
+         */
+        static final class Transition {
+            final CallState state;
+            final long at;
+
+            Transition(CallState state, long at) {
+                this.state = state;
+                this.at = at;
+            }
+        }
         
         public CallConfig(String uuid, String callerId, String username, String media) {
-            this.uuid = uuid;
-            this.callerId = callerId;
-            this.username = username;
-            this.media = media;
-            this.profilePictureUrl = null;
+            this(uuid, callerId, username, media, null, CallState.INCOMING);
         }
 
         public CallConfig(String uuid, String callerId, String username, String media, String profilePictureUrl) {
+            this(uuid, callerId, username, media, profilePictureUrl, CallState.INCOMING);
+        }
+
+        public CallConfig(String uuid, String callerId, String username, String media, String profilePictureUrl, CallState state) {
+            this(uuid, callerId, username, media, profilePictureUrl, state, System.currentTimeMillis());
+        }
+
+        CallConfig(String uuid, String callerId, String username, String media, String profilePictureUrl, CallState state, long createdAt) {
             this.uuid = uuid;
             this.callerId = callerId;
             this.username = username;
             this.media = media;
             this.profilePictureUrl = profilePictureUrl;
+            this.createdAt = createdAt;
+            this.transition = new Transition(state, createdAt);
         }
         
         public String getUuid() {
@@ -240,6 +602,50 @@ public class CallStateManager {
         public String getProfilePictureUrl() {
             return profilePictureUrl;
         }
+
+        public CallState getState() {
+            return transition.state;
+        }
+
+        /**
+         * Wall-clock time the call was registered
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Wall-clock time of the last state transition (or registration)
+         */
+        public long getLastTransitionAt() {
+            return transition.at;
+        }
+
+        Transition getTransition() {
+            return transition;
+        }
+
+        /**
+         * Whether the answered call is on hold; not journaled
+         */
+        public boolean isHeld() {
+            return held;
+        }
+
+        void setHeld(boolean held) {
+            this.held = held;
+        }
+
+        /**
+         * Callers hold CallStateManager's lock, or own a config nobody else can see yet (journal replay)
+         */
+        void moveTo(CallState next) {
+            moveTo(next, System.currentTimeMillis());
+        }
+
+        void moveTo(CallState next, long at) {
+            transition = new Transition(next, at);
+        }
     }
 }
 
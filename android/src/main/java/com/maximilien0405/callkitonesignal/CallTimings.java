@@ -0,0 +1,98 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-call timing marks on the elapsedRealtime clock, used to measure the ring and answer paths.
+ * Only the most recent calls are kept.
+ */
+public final class CallTimings {
+    public static final String PUSH_RECEIVED = "pushReceived";
+    public static final String RING_POSTED = "ringPosted";
+    public static final String WEBVIEW_WARM = "webViewWarm";
+    public static final String ANSWER_TAPPED = "answerTapped";
+    public static final String BRIDGE_READY = "bridgeReady";
+    public static final String LISTENERS_READY = "listenersReady";
+
+    private static final String TAG = "CallTimings";
+    private static final int MAX_CALLS = 8;
+
+    private static final Map<String, Map<String, Long>> marks = new LinkedHashMap<String, Map<String, Long>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Long>> eldest) {
+            return size() > MAX_CALLS;
+        }
+    };
+
+    private CallTimings() {}
+
+    public static void mark(String uuid, String name) {
+        mark(uuid, name, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Record a mark; the first value recorded for a name wins
+     */
+    public static void mark(String uuid, String name, long elapsedRealtime) {
+        if (uuid == null) {
+            return;
+        }
+        synchronized (marks) {
+            Map<String, Long> callMarks = marks.get(uuid);
+            if (callMarks == null) {
+                callMarks = new LinkedHashMap<>();
+                marks.put(uuid, callMarks);
+            }
+            if (!callMarks.containsKey(name)) {
+                callMarks.put(name, elapsedRealtime);
+            }
+        }
+    }
+
+    /**
+     * Milliseconds between two marks of a call, or -1 if either is missing
+     */
+    public static long between(String uuid, String from, String to) {
+        synchronized (marks) {
+            Map<String, Long> callMarks = marks.get(uuid);
+            if (callMarks == null || !callMarks.containsKey(from) || !callMarks.containsKey(to)) {
+                return -1;
+            }
+            return callMarks.get(to) - callMarks.get(from);
+        }
+    }
+
+    /**
+     * The most recently marked call, or null
+     */
+    public static String latestUuid() {
+        synchronized (marks) {
+            String latest = null;
+            for (String uuid : marks.keySet()) {
+                latest = uuid;
+            }
+            return latest;
+        }
+    }
+
+    /**
+     * Copy of the marks recorded for a call
+     */
+    public static Map<String, Long> get(String uuid) {
+        synchronized (marks) {
+            Map<String, Long> callMarks = marks.get(uuid);
+            return callMarks != null ? new LinkedHashMap<>(callMarks) : Collections.emptyMap();
+        }
+    }
+
+    static void logBetween(String uuid, String from, String to, String label) {
+        long elapsed = between(uuid, from, to);
+        if (elapsed >= 0) {
+            Log.i(TAG, label + ": " + elapsed + "ms (" + uuid + ")");
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.Person;
+import androidx.core.graphics.drawable.IconCompat;
+import java.util.Locale;
+
+/**
+ * The parts of the incoming call notification that are the same for every call.
+ *
+ * The app's launch activity is resolved from the PackageManager once per process, and the action labels are
+ * resolved once per locale. Each call then only fills in its own title, texts, avatar and PendingIntents.
+ * From Android 12 the notification uses CallStyle, which the system ranks and displays as a call.
+ */
+final class IncomingCallTemplate {
+    static final String DEFAULT_TITLE = "Unknown Caller";
+    static final String DEFAULT_TEXT = "Incoming call request";
+    static final String DEFAULT_SUMMARY = "Tap to answer or decline";
+
+    private static volatile IncomingCallTemplate instance;
+
+    private final Context context;
+    // null when the app has no launcher activity
+    private final ComponentName launchComponent;
+    private Locale labelsLocale;
+    private String rejectLabel;
+    private String answerLabel;
+
+    private IncomingCallTemplate(Context context) {
+        this.context = context.getApplicationContext();
+        Intent launchIntent = this.context.getPackageManager().getLaunchIntentForPackage(this.context.getPackageName());
+        this.launchComponent = launchIntent != null ? launchIntent.getComponent() : null;
+        Log.d("IncomingCallTemplate", "Launch component resolved: " + launchComponent);
+    }
+
+    static IncomingCallTemplate getInstance(Context context) {
+        if (instance == null) {
+            synchronized (IncomingCallTemplate.class) {
+                if (instance == null) {
+                    instance = new IncomingCallTemplate(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Same Intent as PackageManager.getLaunchIntentForPackage() without the lookup, or null if the app has no launcher activity
+     */
+    Intent newLaunchIntent() {
+        if (launchComponent == null) {
+            return null;
+        }
+        return new Intent(Intent.ACTION_MAIN)
+            .addCategory(Intent.CATEGORY_LAUNCHER)
+            .setComponent(launchComponent)
+            .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    }
+
+    /**
+     * The caller extras every call Intent carries
+     */
+    static Bundle callExtras(String callerId, String username, String media, String uuid) {
+        Bundle extras = new Bundle(4);
+        extras.putString("callerId", callerId);
+        extras.putString("Username", username);
+        extras.putString("media", media);
+        extras.putString("uuid", uuid);
+        return extras;
+    }
+
+    /**
+     * A ringing notification builder with the static parts applied and the call's fields filled in.
+     * The notification times out with the call's own ring timeout, as a backstop to RingTimeoutScheduler.
+     */
+    NotificationCompat.Builder newBuilder(String title, String bigText, String summaryText, Bitmap largeIcon, boolean video, long ringTimeoutMs, PendingIntent receiveIntent, PendingIntent cancelIntent, PendingIntent fullScreenIntent, PendingIntent contentIntent) {
+        String name = displayName(title);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, NotificationChannels.INCOMING_CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_stat_call)
+            .setPriority(NotificationCompat.PRIORITY_MAX)
+            .setCategory(NotificationCompat.CATEGORY_CALL)
+            .setAutoCancel(true)
+            .setOngoing(true)
+            .setTimeoutAfter(ringTimeoutMs)
+            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+            .setFullScreenIntent(fullScreenIntent, true)
+            .setContentIntent(contentIntent)
+            .setContentTitle(name)
+            .setContentText(bigText);
+        if (!applyIncomingCallStyle(builder, name, largeIcon, video, receiveIntent, cancelIntent)) {
+            String[] labels = labels();
+            builder.addAction(R.drawable.ic_stat_call, labels[0], cancelIntent)
+                .addAction(R.drawable.ic_stat_call, labels[1], receiveIntent)
+                .setStyle(new NotificationCompat.BigTextStyle()
+                    .bigText(bigText)
+                    .setSummaryText(summaryText));
+        }
+        if (largeIcon != null) {
+            builder.setLargeIcon(largeIcon);
+        }
+        return builder;
+    }
+
+    // CallStyle adds its own answer and decline actions; false means the caller falls back to the plain layout
+    private static boolean applyIncomingCallStyle(NotificationCompat.Builder builder, String name, Bitmap largeIcon, boolean video, PendingIntent receiveIntent, PendingIntent cancelIntent) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            return false;
+        }
+        try {
+            builder.setStyle(NotificationCompat.CallStyle.forIncomingCall(caller(name, largeIcon), cancelIntent, receiveIntent)
+                .setIsVideo(video));
+            return true;
+        } catch (IllegalArgumentException e) {
+            Log.w("IncomingCallTemplate", "Failed to apply CallStyle, using the plain layout: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * The name to show for a caller; CallStyle rejects an empty one
+     */
+    static String displayName(String name) {
+        return TextUtils.isEmpty(name) || TextUtils.getTrimmedLength(name) == 0 ? DEFAULT_TITLE : name;
+    }
+
+    /**
+     * The caller as a Person, for CallStyle
+     */
+    static Person caller(String name, Bitmap avatar) {
+        Person.Builder person = new Person.Builder()
+            .setName(displayName(name))
+            .setImportant(true);
+        if (avatar != null) {
+            person.setIcon(IconCompat.createWithBitmap(avatar));
+        }
+        return person.build();
+    }
+
+    // Reject and answer labels, re-resolved only when the locale changes
+    private synchronized String[] labels() {
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        if (!locale.equals(labelsLocale)) {
+            rejectLabel = context.getString(R.string.reject);
+            answerLabel = context.getString(R.string.answer);
+            labelsLocale = locale;
+        }
+        return new String[] { rejectLabel, answerLabel };
+    }
+}
@@ -0,0 +1,109 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+/**
+ * Renders a circular initials avatar for a caller, on a color derived from the caller so the same person
+ * always gets the same avatar. Rendered bitmaps are kept in a small LRU, so the incoming call notification
+ * can always show a large icon without any I/O.
+ */
+public final class InitialsAvatarRenderer {
+    private static final int CACHE_ENTRIES = 16;
+
+    // Material 600 shades, dark enough for white text
+    private static final int[] PALETTE = {
+        0xFFE53935, 0xFFD81B60, 0xFF8E24AA, 0xFF5E35B1,
+        0xFF3949AB, 0xFF1E88E5, 0xFF039BE5, 0xFF00897B,
+        0xFF43A047, 0xFF7CB342, 0xFFF4511E, 0xFF6D4C41
+    };
+
+    // Holder so the cache is only created once something is rendered
+    private static final class Cache {
+        static final LruCache<String, Bitmap> BITMAPS = new LruCache<>(CACHE_ENTRIES);
+    }
+
+    private InitialsAvatarRenderer() {}
+
+    /**
+     * Get the initials avatar for a caller, rendering it on first use
+     */
+    public static Bitmap render(String username, String callerId, int sizePx) {
+        String initials = initialsFor(username, callerId);
+        int color = colorFor(callerId != null && !callerId.isEmpty() ? callerId : username);
+        String key = sizePx + ":" + color + ":" + initials;
+
+        Bitmap cached = Cache.BITMAPS.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Bitmap bitmap = draw(initials, color, sizePx);
+        Cache.BITMAPS.put(key, bitmap);
+        return bitmap;
+    }
+
+    static Bitmap draw(String initials, int color, int sizePx) {
+        Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        float radius = sizePx / 2f;
+
+        Paint background = new Paint(Paint.ANTI_ALIAS_FLAG);
+        background.setColor(color);
+        canvas.drawCircle(radius, radius, radius, background);
+
+        Paint text = new Paint(Paint.ANTI_ALIAS_FLAG);
+        text.setColor(Color.WHITE);
+        text.setTypeface(Typeface.DEFAULT_BOLD);
+        text.setTextAlign(Paint.Align.CENTER);
+        text.setTextSize(sizePx * (initials.length() > 1 ? 0.38f : 0.45f));
+        float baseline = radius - (text.descent() + text.ascent()) / 2f;
+        canvas.drawText(initials, radius, baseline, text);
+        return bitmap;
+    }
+
+    /**
+     * Up to two initials from the display name (first and last word), else the first character of the callerId
+     */
+    static String initialsFor(String username, String callerId) {
+        if (username != null) {
+            String[] words = username.trim().split("\\s+");
+            String first = firstLetter(words[0]);
+            if (first != null) {
+                String last = words.length > 1 ? firstLetter(words[words.length - 1]) : null;
+                return last != null ? first + last : first;
+            }
+        }
+        if (callerId != null) {
+            String first = firstLetter(callerId.trim());
+            if (first != null) {
+                return first;
+            }
+        }
+        return "?";
+    }
+
+    /**
+     * Deterministic palette color for a caller key
+     */
+    static int colorFor(String key) {
+        if (key == null || key.isEmpty()) {
+            return PALETTE[0];
+        }
+        return PALETTE[(key.hashCode() & 0x7FFFFFFF) % PALETTE.length];
+    }
+
+    private static String firstLetter(String word) {
+        if (word == null || word.isEmpty()) {
+            return null;
+        }
+        int codePoint = word.codePointAt(0);
+        if (!Character.isLetterOrDigit(codePoint)) {
+            return null;
+        }
+        return new String(Character.toChars(Character.toUpperCase(codePoint)));
+    }
+}
@@ -0,0 +1,59 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.util.Log;
+
+/**
+ * Microphone mute for the current call.
+ *
+ * Every change, whatever its source (setMuted, the notification action, Telecom, or another app), goes through
+ * publish(), which emits muteStateChanged and refreshes the ongoing notifications only when the state differs
+ * from the last one reported.
+ */
+final class MuteController {
+
+    // Last state reported to JS; null until the first report
+    private static Boolean lastReported;
+
+    private MuteController() {}
+
+    static boolean isMuted(Context context) {
+        AudioManager audioManager = context.getSystemService(AudioManager.class);
+        return audioManager != null && audioManager.isMicrophoneMute();
+    }
+
+    /**
+     * Returns true if the mute state changed
+     */
+    static boolean setMuted(Context context, boolean muted) {
+        AudioManager audioManager = context.getSystemService(AudioManager.class);
+        if (audioManager == null || audioManager.isMicrophoneMute() == muted) {
+            return false;
+        }
+        audioManager.setMicrophoneMute(muted);
+        Log.d("MuteController", "Microphone " + (muted ? "muted" : "unmuted"));
+        publish(context, muted);
+        return true;
+    }
+
+    /**
+     * The microphone mute changed outside the plugin
+     */
+    static void onSystemMuteChanged(Context context) {
+        publish(context, isMuted(context));
+    }
+
+    private static void publish(Context context, boolean muted) {
+        synchronized (MuteController.class) {
+            if (lastReported != null && lastReported == muted) {
+                return;
+            }
+            lastReported = muted;
+        }
+        CallKitVoipPlugin.notifyMuteChanged(muted);
+        for (String uuid : CallStateManager.getInstance(context).getActiveCallUUIDs()) {
+            CallNotificationService.refreshOngoingNotification(uuid);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Process-level, versioned registry of the plugin's notification channels.
+ *
+ * Channels are created once per install and version: the version that was applied is stored in preferences,
+ * so later service starts and plugin loads return without any NotificationManager binder call. A channel's
+ * sound and importance cannot be changed once created, so changing them means bumping VERSION and giving the
+ * channel a new id; the ids created by the previous version are deleted when the new version is applied.
+ */
+final class NotificationChannels {
+    static final String INCOMING_CHANNEL_ID = "IncomingCallChannelSilent";
+    static final String ONGOING_CHANNEL_ID = "OngoingCallChannel";
+
+    /** Bump whenever a channel's id, sound, vibration or importance changes */
+    static final int VERSION = 2;
+
+    // Created by releases that predate this registry
+    private static final String[] LEGACY_CHANNEL_IDS = { "IncomingCallChannel" };
+
+    private static final String TAG = "NotificationChannels";
+    private static final String PREFS_NAME = "callkit-notification-channels";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_CHANNEL_IDS = "channelIds";
+
+    private static volatile boolean ensured = false;
+
+    private NotificationChannels() {}
+
+    /**
+     * Make sure the current channels exist. Cheap after the first successful call in a process;
+     * a failed attempt is retried on the next call.
+     */
+    static void ensure(Context context) {
+        if (ensured) {
+            return;
+        }
+        synchronized (NotificationChannels.class) {
+            if (ensured) {
+                return;
+            }
+            Context appContext = context.getApplicationContext();
+            SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            ensured = prefs.getInt(KEY_VERSION, 0) == VERSION || apply(appContext, prefs);
+        }
+    }
+
+    /**
+     * Returns true once the channels at VERSION exist
+     */
+    private static boolean apply(Context context, SharedPreferences prefs) {
+        NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+        if (notificationManager == null) {
+            return false;
+        }
+        try {
+            NotificationChannel incomingChannel = new NotificationChannel(INCOMING_CHANNEL_ID, "Incoming Call Channel", NotificationManager.IMPORTANCE_HIGH);
+            incomingChannel.setDescription("Incoming Call Notifications");
+            incomingChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
+            // RingEngine plays the ringtone and vibration
+            incomingChannel.setSound(null, null);
+            incomingChannel.enableVibration(false);
+
+            NotificationChannel ongoingChannel = new NotificationChannel(ONGOING_CHANNEL_ID, "Ongoing Call Channel", NotificationManager.IMPORTANCE_LOW);
+            ongoingChannel.setDescription("Ongoing Call Notifications");
+            ongoingChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
+            ongoingChannel.setSound(null, null);
+
+            notificationManager.createNotificationChannels(Arrays.asList(incomingChannel, ongoingChannel));
+
+            Set<String> current = new HashSet<>(Arrays.asList(INCOMING_CHANNEL_ID, ONGOING_CHANNEL_ID));
+            Set<String> retired = new HashSet<>(prefs.getStringSet(KEY_CHANNEL_IDS, new HashSet<>()));
+            retired.addAll(Arrays.asList(LEGACY_CHANNEL_IDS));
+            retired.removeAll(current);
+            for (String channelId : retired) {
+                notificationManager.deleteNotificationChannel(channelId);
+            }
+
+            prefs.edit().putInt(KEY_VERSION, VERSION).putStringSet(KEY_CHANNEL_IDS, current).apply();
+            Log.d(TAG, "Notification channels at version " + VERSION + ", retired: " + retired);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create notification channels: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -8,12 +8,14 @@ import org.json.JSONObject;
 import android.util.Log;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 
 @Keep
 public class NotificationServiceExtension implements INotificationServiceExtension {
 
     @Override
     public void onNotificationReceived(INotificationReceivedEvent event) {
+        long receivedAt = SystemClock.elapsedRealtime();
         try {
             Log.d("NotifSvcExt", "=== OneSignal notification received ===");
             Log.d("NotifSvcExt", "App state: " + (CallKitVoipPlugin.getInstance() != null ? "Plugin loaded" : "Plugin not loaded"));
@@ -29,125 +31,115 @@ public class NotificationServiceExtension implements INotificationServiceExtensi
                 return builder;
             });
             
-            if (data != null) {
-                String callerId = data.optString("callerId", null);
-                boolean cancelCall = data.optBoolean("cancelCall", false);
+            CallPayload payload = CallPayload.fromJson(data);
+            if (payload != null) {
+                String callerId = payload.callerId;
+                boolean cancelCall = payload.cancelCall;
                 
                 Log.d("NotifSvcExt", "CallerId: " + callerId + ", CancelCall: " + cancelCall);
                 
-                if (callerId != null && !callerId.isEmpty()) {
-                    if (cancelCall) {
-                        try {
-                            Context ctx = getAppContext();
-                            if (ctx != null) {
-                                Log.d("NotifSvcExt", "Handling call cancellation for callerId: " + callerId);
-                                
-                                Intent stopIntent = new Intent(ctx, CallNotificationService.class);
-                                ctx.stopService(stopIntent);
-                                
-                                android.app.NotificationManager notificationManager = 
-                                    (android.app.NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
-                                if (notificationManager != null) {
-                                    notificationManager.cancelAll();
-                                    Log.d("NotifSvcExt", "All notifications cancelled");
-                                }
-                                
-                                CallStateManager.getInstance().clearAllCalls();
-                                Log.d("NotifSvcExt", "All call state cleared");
-                                
-                                android.media.AudioManager audioManager = (android.media.AudioManager) ctx.getSystemService(Context.AUDIO_SERVICE);
-                                if (audioManager != null) {
-                                    audioManager.setMode(android.media.AudioManager.MODE_NORMAL);
-                                    audioManager.setSpeakerphoneOn(false);
-                                    audioManager.abandonAudioFocus(null);
-                                    Log.d("NotifSvcExt", "Audio manager reset");
+                if (cancelCall) {
+                    try {
+                        Context ctx = getAppContext();
+                        if (ctx != null) {
+                            Log.d("NotifSvcExt", "Handling call cancellation for callerId: " + callerId);
+                            
+                            CallStateManager stateManager = CallStateManager.getInstance(ctx);
+                            java.util.List<String> uuids = payload.uuidFromBackend && stateManager.getCallConfig(payload.uuid) != null
+                                ? java.util.Collections.singletonList(payload.uuid)
+                                : new java.util.ArrayList<>(stateManager.getUUIDsByCallerId(callerId));
+                            for (String uuid : uuids) {
+                                CallNotificationService.teardownCall(ctx, uuid);
+                            }
+                            if (uuids.isEmpty()) {
+                                Log.w("NotifSvcExt", "No active call found for callerId: " + callerId);
+                                if (!stateManager.hasActiveCalls()) {
+                                    ctx.stopService(new Intent(ctx, CallNotificationService.class));
                                 }
-                                
-                                Log.d("NotifSvcExt", "Call cancellation cleanup completed");
                             }
-                        } catch (Throwable t) {
-                            Log.e("NotifSvcExt", "Failed to handle call cancellation", t);
+                            
+                            Log.d("NotifSvcExt", "Call cancellation cleanup completed");
                         }
-                        event.preventDefault();
-                        return;
+                    } catch (Throwable t) {
+                        Log.e("NotifSvcExt", "Failed to handle call cancellation", t);
                     }
+                    event.preventDefault();
+                    return;
+                }
 
-                    String username = data.optString("Username", "");
-                    String media = data.optString("media", "audio");
-                    String profilePictureUrl = data.optString("profilePictureUrl", null);
-                    String notificationText = data.optString("notificationText", null);
-                    String notificationSummary = data.optString("notificationSummary", null);
-                    String declineApiUrl = data.optString("declineApiUrl", null);
+                String dedupKey = payload.dedupKey(notif.getNotificationId());
+                if (PushDeduplicator.getInstance().isDuplicate(dedupKey)) {
+                    Log.d("NotifSvcExt", "Dropping duplicate call push: " + dedupKey);
+                    event.preventDefault();
+                    return;
+                }
 
-                    Log.d("NotifSvcExt", "Processing VoIP call - Username: " + username + ", Media: " + media);
+                String username = payload.username;
+                String media = payload.media;
 
-                    String uuid = CallStateManager.getInstance().generateUUID();
-                    Log.d("NotifSvcExt", "Generated UUID: " + uuid);
-                    
-                    CallKitVoipPlugin.addPendingEvent("incoming", callerId, username, media, uuid);
-                    
-                    CallKitVoipPlugin instance = CallKitVoipPlugin.getInstance();
-                    if (instance != null) {
-                        Log.d("NotifSvcExt", "Plugin instance found, firing incoming event");
-                        instance.notifyEvent("incoming", callerId, username, media, uuid);
-                    } else {
-                        Log.w("NotifSvcExt", "Plugin instance is null - app is closed, will launch app");
-                        try {
-                            Context ctx = getAppContext();
-                            if (ctx != null) {
-                                Intent launchIntent = ctx.getPackageManager().getLaunchIntentForPackage(ctx.getPackageName());
-                                if (launchIntent != null) {
-                                    launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | 
-                                                        Intent.FLAG_ACTIVITY_CLEAR_TOP |
-                                                        Intent.FLAG_ACTIVITY_SINGLE_TOP |
-                                                        Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
-                                    launchIntent.putExtra("callerId", callerId);
-                                    launchIntent.putExtra("Username", username);
-                                    launchIntent.putExtra("media", media);
-                                    launchIntent.putExtra("uuid", uuid);
-                                    launchIntent.putExtra("fromNotification", true);
-                                    launchIntent.putExtra("CALL_EVENT", "incoming");
-                                    ctx.startActivity(launchIntent);
-                                    Log.d("NotifSvcExt", "App launched to background for incoming call");
-                                }
+                Log.d("NotifSvcExt", "Processing VoIP call - Username: " + username + ", Media: " + media);
+
+                // The backend's id if it sent one, so both sides name the call the same way
+                String uuid = payload.uuid;
+                CallStateManager stateManager = CallStateManager.getInstance(getAppContext());
+                if (stateManager.getCallConfig(uuid) != null) {
+                    // Redelivered after a process restart, when the dedup window was lost
+                    Log.d("NotifSvcExt", "Call already registered, dropping push: " + uuid);
+                    event.preventDefault();
+                    return;
+                }
+                Log.d("NotifSvcExt", "Call UUID: " + uuid);
+                CallTimings.mark(uuid, CallTimings.PUSH_RECEIVED, receivedAt);
+                
+                CallKitVoipPlugin.addPendingEvent(getAppContext(), "incoming", callerId, username, media, uuid);
+                
+                CallKitVoipPlugin instance = CallKitVoipPlugin.getInstance();
+                if (instance != null) {
+                    Log.d("NotifSvcExt", "Plugin instance found, firing incoming event");
+                    instance.notifyEvent("incoming", callerId, username, media, uuid);
+                } else if (CallKitConfig.COLD_START_SERVICE_ONLY.equals(CallKitConfig.getColdStartMode(getAppContext()))) {
+                    // The app is started through RECEIVE_CALL only if the user answers
+                    Log.d("NotifSvcExt", "Plugin instance is null - serviceOnly cold start, ringing without launching app");
+                } else {
+                    Log.w("NotifSvcExt", "Plugin instance is null - app is closed, will launch app");
+                    try {
+                        Context ctx = getAppContext();
+                        if (ctx != null) {
+                            Intent launchIntent = IncomingCallTemplate.getInstance(ctx).newLaunchIntent();
+                            if (launchIntent != null) {
+                                launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | 
+                                                    Intent.FLAG_ACTIVITY_CLEAR_TOP |
+                                                    Intent.FLAG_ACTIVITY_SINGLE_TOP |
+                                                    Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+                                launchIntent.putExtra("callerId", callerId);
+                                launchIntent.putExtra("Username", username);
+                                launchIntent.putExtra("media", media);
+                                launchIntent.putExtra("uuid", uuid);
+                                launchIntent.putExtra("fromNotification", true);
+                                launchIntent.putExtra("CALL_EVENT", "incoming");
+                                ctx.startActivity(launchIntent);
+                                Log.d("NotifSvcExt", "App launched to background for incoming call");
                             }
-                        } catch (Throwable t) {
-                            Log.e("NotifSvcExt", "Failed to launch app for incoming call", t);
                         }
+                    } catch (Throwable t) {
+                        Log.e("NotifSvcExt", "Failed to launch app for incoming call", t);
                     }
+                }
 
-                    Context ctx = getAppContext();
-                    if (ctx != null) {
+                Context ctx = getAppContext();
+                if (ctx != null) {
+                    // With useConnectionService, Telecom asks for the ring once it has accepted the call
+                    if (!TelecomCalls.addIncomingCall(ctx, payload)) {
                         Log.d("NotifSvcExt", "Starting CallNotificationService");
-                        Intent serviceIntent = new Intent(ctx, CallNotificationService.class);
-                        serviceIntent.putExtra("callerId", callerId);
-                        serviceIntent.putExtra("Username", username);
-                        serviceIntent.putExtra("media", media);
-                        serviceIntent.putExtra("uuid", uuid);
-                        serviceIntent.putExtra("profilePictureUrl", profilePictureUrl);
-                        serviceIntent.putExtra("notificationText", notificationText);
-                        serviceIntent.putExtra("notificationSummary", notificationSummary);
-                        serviceIntent.putExtra("declineApiUrl", declineApiUrl);
-                        serviceIntent.setPackage(ctx.getPackageName());
-                        
-                        try {
-                            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-                                ctx.startForegroundService(serviceIntent);
-                            } else {
-                                ctx.startService(serviceIntent);
-                            }
-                            Log.d("NotifSvcExt", "CallNotificationService started successfully");
-                        } catch (Throwable t) {
-                            Log.e("NotifSvcExt", "Failed to start CallNotificationService", t);
-                        }
-                    } else {
-                        Log.w("NotifSvcExt", "Context is null, cannot start CallNotificationService");
+                        CallNotificationService.startRinging(ctx, payload);
                     }
-
-                    Log.d("NotifSvcExt", "Preventing default notification display for VoIP call");
-                    event.preventDefault();
-                    return;
+                } else {
+                    Log.w("NotifSvcExt", "Context is null, cannot start CallNotificationService");
                 }
+
+                Log.d("NotifSvcExt", "Preventing default notification display for VoIP call");
+                event.preventDefault();
+                return;
             }
             
             Log.d("NotifSvcExt", "Allowing notification to display normally");
@@ -0,0 +1,242 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
+
+/**
+ * Events raised while no JS listener can receive them, kept until the app drains them.
+ *
+ * A fixed-size ring buffer: when full, the oldest event is overwritten. Events are deduplicated by
+ * (eventName, uuid) through a key-to-slot index, so inserts are O(1). Every accepted event is also appended to a
+ * small JSON-lines log in the files dir, which is replayed on first use so events raised by the push extension
+ * survive the process being killed before the app starts. Events older than MAX_AGE_MILLIS are dropped.
+ */
+final class PendingEventQueue {
+    private static final String TAG = "PendingEventQueue";
+    private static final String FILE_NAME = "callkit-pending-events.jsonl";
+    static final int CAPACITY = 32;
+    static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    private static volatile PendingEventQueue instance;
+
+    private final File file;
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final Event[] ring;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int head = 0; // oldest event
+    private int size = 0;
+    private int linesOnDisk = 0;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CallKit-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static final class Event {
+        final String eventName;
+        final JSObject data;
+        final long createdAt;
+        final String key;
+
+        Event(String eventName, JSObject data, long createdAt) {
+            this.eventName = eventName;
+            this.data = data;
+            this.createdAt = createdAt;
+            String id = data.optString("uuid", null);
+            this.key = eventName + "|" + (id != null ? id : data.optString("connectionId", ""));
+        }
+    }
+
+    PendingEventQueue(File file, int capacity, long maxAgeMillis) {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.ring = new Event[capacity];
+    }
+
+    static PendingEventQueue getInstance(Context context) {
+        if (instance == null) {
+            synchronized (PendingEventQueue.class) {
+                if (instance == null) {
+                    PendingEventQueue queue = new PendingEventQueue(
+                        new File(context.getApplicationContext().getFilesDir(), FILE_NAME), CAPACITY, MAX_AGE_MILLIS);
+                    queue.restore(System.currentTimeMillis());
+                    instance = queue;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Queue an event. Returns false if an event with the same name and call is already queued.
+     */
+    boolean add(String eventName, JSObject data) {
+        return add(eventName, data, System.currentTimeMillis());
+    }
+
+    synchronized boolean add(String eventName, JSObject data, long now) {
+        Event event = new Event(eventName, data, now);
+        if (!insert(event, now)) {
+            return false;
+        }
+        append(event);
+        return true;
+    }
+
+    /**
+     * Remove and return the queued events that have not expired, oldest first
+     */
+    List<Event> drain() {
+        return drain(System.currentTimeMillis());
+    }
+
+    synchronized List<Event> drain(long now) {
+        List<Event> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Event event = ring[(head + i) % capacity];
+            if (now - event.createdAt < maxAgeMillis) {
+                events.add(event);
+            }
+        }
+        clear();
+        rewrite();
+        return events;
+    }
+
+    synchronized boolean isEmpty(long now) {
+        dropExpired(now);
+        return size == 0;
+    }
+
+    boolean isEmpty() {
+        return isEmpty(System.currentTimeMillis());
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private boolean insert(Event event, long now) {
+        dropExpired(now);
+        if (slots.containsKey(event.key)) {
+            return false;
+        }
+        if (size == capacity) {
+            Event oldest = ring[head];
+            slots.remove(oldest.key);
+            Log.w(TAG, "Pending event queue full, dropping oldest: " + oldest.eventName);
+            ring[head] = null;
+            head = (head + 1) % capacity;
+            size--;
+        }
+        int slot = (head + size) % capacity;
+        ring[slot] = event;
+        slots.put(event.key, slot);
+        size++;
+        return true;
+    }
+
+    // Events are in insertion order, so expired ones are always at the head
+    private void dropExpired(long now) {
+        while (size > 0 && now - ring[head].createdAt >= maxAgeMillis) {
+            slots.remove(ring[head].key);
+            ring[head] = null;
+            head = (head + 1) % capacity;
+            size--;
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = null;
+        }
+        slots.clear();
+        head = 0;
+        size = 0;
+    }
+
+    synchronized void restore(long now) {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JSONObject record = new JSONObject(line);
+                    insert(new Event(record.getString("eventName"), new JSObject(record.getJSONObject("data").toString()), record.getLong("createdAt")), now);
+                } catch (Exception e) {
+                    // A line cut short by process death; everything before it is intact
+                    Log.w(TAG, "Skipping unreadable pending event: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read pending events: " + e.getMessage());
+        }
+        if (size > 0) {
+            Log.d(TAG, "Restored " + size + " pending event(s)");
+        }
+        rewrite();
+    }
+
+    private void append(Event event) {
+        if (linesOnDisk + 1 > capacity * 2) {
+            rewrite();
+            return;
+        }
+        linesOnDisk++;
+        String line = serialize(event);
+        writer.execute(() -> {
+            try (Writer out = new FileWriter(file, true)) {
+                out.write(line);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to persist pending event: " + e.getMessage());
+            }
+        });
+    }
+
+    // Replace the log with the live contents of the ring
+    private void rewrite() {
+        StringBuilder snapshot = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            snapshot.append(serialize(ring[(head + i) % capacity]));
+        }
+        linesOnDisk = size;
+        String contents = snapshot.toString();
+        writer.execute(() -> {
+            try (Writer out = new FileWriter(file, false)) {
+                out.write(contents);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to persist pending events: " + e.getMessage());
+            }
+        });
+    }
+
+    private static String serialize(Event event) {
+        try {
+            JSONObject record = new JSONObject();
+            record.put("eventName", event.eventName);
+            record.put("createdAt", event.createdAt);
+            record.put("data", event.data);
+            return record.toString() + "\n";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
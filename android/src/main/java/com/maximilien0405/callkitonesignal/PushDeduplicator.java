@@ -0,0 +1,84 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.os.SystemClock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time-windowed memory of the call pushes already handled.
+ *
+ * OneSignal may redeliver a push and the backend retries on slow acknowledgements; without this every copy
+ * would ring again under a fresh uuid. Keys are remembered for WINDOW_MILLIS and at most MAX_ENTRIES are kept,
+ * oldest first out.
+ */
+public final class PushDeduplicator {
+    static final long WINDOW_MILLIS = 60_000;
+    static final int MAX_ENTRIES = 64;
+
+    private static final PushDeduplicator INSTANCE = new PushDeduplicator();
+
+    // Insertion order == first-seen order, so expired entries are always at the head
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    PushDeduplicator() {}
+
+    public static PushDeduplicator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Build the dedup key for a call push: the backend's callId if present, otherwise the caller plus the
+     * push timestamp, otherwise the caller plus the OneSignal notification id. Returns null if none is usable.
+     */
+    public static String keyFor(String callId, String callerId, String timestamp, String notificationId) {
+        if (callId != null && !callId.isEmpty()) {
+            return "id:" + callId;
+        }
+        if (callerId == null || callerId.isEmpty()) {
+            return null;
+        }
+        if (timestamp != null && !timestamp.isEmpty()) {
+            return "ts:" + callerId + ":" + timestamp;
+        }
+        if (notificationId != null && !notificationId.isEmpty()) {
+            return "os:" + callerId + ":" + notificationId;
+        }
+        return null;
+    }
+
+    /**
+     * Record the key and return true if it was already seen inside the window
+     */
+    public boolean isDuplicate(String key) {
+        return isDuplicate(key, SystemClock.elapsedRealtime());
+    }
+
+    synchronized boolean isDuplicate(String key, long now) {
+        if (key == null) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = seen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (now - entry.getValue() < WINDOW_MILLIS) {
+                break;
+            }
+            iterator.remove();
+        }
+        if (seen.containsKey(key)) {
+            return true;
+        }
+        if (seen.size() >= MAX_ENTRIES) {
+            iterator = seen.entrySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+        seen.put(key, now);
+        return false;
+    }
+
+    synchronized int size() {
+        return seen.size();
+    }
+}
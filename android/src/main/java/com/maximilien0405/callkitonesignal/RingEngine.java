@@ -0,0 +1,249 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+import android.os.VibratorManager;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * In-service ringtone and vibration for incoming calls.
+ *
+ * The incoming call channel is silent, so ringing does not depend on OEM handling of channel sounds. The
+ * ringtone is prepared ahead of time (the default one as soon as the service is created), so starting it is a
+ * plain MediaPlayer.start(). The ringer mode and Do Not Disturb are honoured, and everything is released by
+ * releasePlayer()/stopVibration().
+ */
+final class RingEngine {
+    private static final String TAG = "RingEngine";
+    static final long[] DEFAULT_VIBRATION_PATTERN = { 0, 1000, 1000 };
+
+    private static final AudioAttributes RING_ATTRIBUTES = new AudioAttributes.Builder()
+        .setUsage(AudioAttributes.USAGE_NOTIFICATION_RINGTONE)
+        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+        .build();
+
+    private final Context context;
+    private MediaPlayer mediaPlayer;
+    private Uri preparedUri;
+    private Vibrator vibrator;
+    private boolean ringing = false;
+    // The sound ring() asked for, while ringing
+    private Uri ringingUri;
+    private long lastStartLatencyNanos = -1;
+    // Bumped by release(), so a prepare() that was in flight does not install its player afterwards
+    private int generation = 0;
+
+    RingEngine(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Prepare the ringtone so ring() can start it immediately. Blocking; call off the main thread.
+     * The player is prepared without holding the lock, so ring() and stop() never wait on the media stack.
+     * Returns false if the sound cannot be played.
+     */
+    boolean prepare(Uri soundUri) {
+        Uri uri = soundUri != null ? soundUri : Settings.System.DEFAULT_RINGTONE_URI;
+        int preparingFor;
+        synchronized (this) {
+            if (mediaPlayer != null && uri.equals(preparedUri)) {
+                return true;
+            }
+            preparingFor = generation;
+        }
+        MediaPlayer player = new MediaPlayer();
+        try {
+            player.setAudioAttributes(RING_ATTRIBUTES);
+            player.setDataSource(context, uri);
+            player.setLooping(true);
+            player.prepare();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to prepare ringtone " + uri + ": " + e.getMessage());
+            player.release();
+            return false;
+        }
+        MediaPlayer unused;
+        boolean released;
+        synchronized (this) {
+            released = generation != preparingFor;
+            if (released || (mediaPlayer != null && uri.equals(preparedUri)) || (ringing && !uri.equals(ringingUri))) {
+                // Released meanwhile, another prepare() of the same sound won, or a different sound is ringing
+                unused = player;
+            } else {
+                unused = mediaPlayer;
+                mediaPlayer = player;
+                preparedUri = uri;
+                if (ringing && shouldPlaySound()) {
+                    // ring() was called while this sound was still being prepared
+                    player.start();
+                }
+            }
+        }
+        releaseQuietly(unused);
+        return !released;
+    }
+
+    /**
+     * Start ringing with the given sound (null for the default ringtone) and vibration pattern
+     * (null for the default). A sound that was not prepared yet starts as soon as prepare() finishes.
+     */
+    synchronized void ring(Uri soundUri, long[] vibrationPattern) {
+        if (ringing) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        ringing = true;
+        Uri uri = soundUri != null ? soundUri : Settings.System.DEFAULT_RINGTONE_URI;
+        ringingUri = uri;
+        boolean prepared = mediaPlayer != null && uri.equals(preparedUri);
+        if (prepared && shouldPlaySound()) {
+            mediaPlayer.seekTo(0);
+            mediaPlayer.start();
+        }
+        if (shouldVibrate()) {
+            vibrate(vibrationPattern != null ? vibrationPattern : DEFAULT_VIBRATION_PATTERN);
+        }
+        lastStartLatencyNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.d(TAG, "Ringing started in " + lastStartLatencyNanos / 1000 + "us" + (prepared ? "" : ", waiting for ringtone to prepare"));
+        if (!prepared) {
+            CallKitExecutor.getInstance().execute(CallKitExecutor.Priority.RING_CRITICAL, "prepareRingtone", () -> prepare(uri));
+        }
+    }
+
+    /**
+     * Stop the sound and vibration, keeping the prepared ringtone for the next call
+     */
+    synchronized void stop() {
+        if (!ringing) {
+            return;
+        }
+        ringing = false;
+        try {
+            if (mediaPlayer != null && mediaPlayer.isPlaying()) {
+                mediaPlayer.pause();
+            }
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Failed to stop ringtone: " + e.getMessage());
+        }
+        stopVibration();
+        Log.d(TAG, "Ringing stopped");
+    }
+
+    synchronized boolean isRinging() {
+        return ringing;
+    }
+
+    synchronized boolean isSoundPlaying() {
+        return mediaPlayer != null && mediaPlayer.isPlaying();
+    }
+
+    synchronized long getLastStartLatencyNanos() {
+        return lastStartLatencyNanos;
+    }
+
+    void releasePlayer() {
+        MediaPlayer player;
+        synchronized (this) {
+            player = mediaPlayer;
+            mediaPlayer = null;
+            preparedUri = null;
+        }
+        releaseQuietly(player);
+    }
+
+    private static void releaseQuietly(MediaPlayer player) {
+        if (player == null) {
+            return;
+        }
+        try {
+            if (player.isPlaying()) {
+                player.stop();
+            }
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Failed to stop ringtone: " + e.getMessage());
+        }
+        player.release();
+    }
+
+    synchronized void stopVibration() {
+        if (vibrator != null) {
+            vibrator.cancel();
+            vibrator = null;
+        }
+    }
+
+    /**
+     * Stop ringing and free the player
+     */
+    void release() {
+        synchronized (this) {
+            ringing = false;
+            generation++;
+        }
+        releasePlayer();
+        stopVibration();
+    }
+
+    private void vibrate(long[] pattern) {
+        Vibrator device;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            VibratorManager manager = context.getSystemService(VibratorManager.class);
+            device = manager != null ? manager.getDefaultVibrator() : null;
+        } else {
+            device = context.getSystemService(Vibrator.class);
+        }
+        if (device == null || !device.hasVibrator()) {
+            return;
+        }
+        vibrator = device;
+        vibrator.vibrate(VibrationEffect.createWaveform(pattern, 0), RING_ATTRIBUTES);
+    }
+
+    private boolean shouldPlaySound() {
+        AudioManager audioManager = context.getSystemService(AudioManager.class);
+        return audioManager == null || audioManager.getRingerMode() == AudioManager.RINGER_MODE_NORMAL && !isDoNotDisturbOn();
+    }
+
+    private boolean shouldVibrate() {
+        AudioManager audioManager = context.getSystemService(AudioManager.class);
+        return (audioManager == null || audioManager.getRingerMode() != AudioManager.RINGER_MODE_SILENT) && !isDoNotDisturbOn();
+    }
+
+    private boolean isDoNotDisturbOn() {
+        NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+        if (notificationManager == null) {
+            return false;
+        }
+        int filter = notificationManager.getCurrentInterruptionFilter();
+        return filter != NotificationManager.INTERRUPTION_FILTER_ALL && filter != NotificationManager.INTERRUPTION_FILTER_UNKNOWN;
+    }
+
+    /**
+     * Resolve a payload ringtone: a raw resource name bundled with the app, or a content:// / android.resource:// URI.
+     * Returns null (the default ringtone) for anything else, such as remote URLs that would have to stream.
+     */
+    static Uri resolveSound(Context context, String sound) {
+        if (sound == null || sound.isEmpty()) {
+            return null;
+        }
+        if (sound.startsWith("content://") || sound.startsWith("android.resource://")) {
+            return Uri.parse(sound);
+        }
+        String name = sound.contains(".") ? sound.substring(0, sound.lastIndexOf('.')) : sound;
+        int resId = context.getResources().getIdentifier(name, "raw", context.getPackageName());
+        if (resId == 0) {
+            Log.w(TAG, "Ringtone not found in res/raw: " + sound);
+            return null;
+        }
+        return Uri.parse("android.resource://" + context.getPackageName() + "/" + resId);
+    }
+}
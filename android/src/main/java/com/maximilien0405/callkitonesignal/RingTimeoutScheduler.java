@@ -0,0 +1,73 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-call ring timeouts on the main Handler.
+ *
+ * Each ringing call gets one delayed message; no thread is created. A call that is still ringing when its
+ * timeout fires is torn down and reported as callMissed. Timeouts are cancelled as soon as the call's ring
+ * notification goes away (answer, decline, cancel push or eviction).
+ */
+final class RingTimeoutScheduler {
+    static final long DEFAULT_TIMEOUT_MS = 30_000;
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    // Only touched on the main thread
+    private static final Map<String, Runnable> timeouts = new HashMap<>();
+
+    private RingTimeoutScheduler() {}
+
+    /**
+     * (Re)schedule the ring timeout of a call
+     */
+    static void schedule(Context context, String uuid, long timeoutMs) {
+        if (uuid == null) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        handler.post(() -> {
+            Runnable previous = timeouts.remove(uuid);
+            if (previous != null) {
+                handler.removeCallbacks(previous);
+            }
+            Runnable timeout = () -> {
+                timeouts.remove(uuid);
+                onTimeout(appContext, uuid);
+            };
+            timeouts.put(uuid, timeout);
+            handler.postDelayed(timeout, timeoutMs);
+            Log.d("RingTimeoutScheduler", "Ring timeout in " + timeoutMs + "ms for call: " + uuid);
+        });
+    }
+
+    static void cancel(String uuid) {
+        if (uuid == null) {
+            return;
+        }
+        handler.post(() -> {
+            Runnable timeout = timeouts.remove(uuid);
+            if (timeout != null) {
+                handler.removeCallbacks(timeout);
+                Log.d("RingTimeoutScheduler", "Ring timeout cancelled for call: " + uuid);
+            }
+        });
+    }
+
+    private static void onTimeout(Context context, String uuid) {
+        CallStateManager stateManager = CallStateManager.getInstance(context);
+        CallStateManager.CallConfig config = stateManager.getCallConfig(uuid);
+        // Losing this race to an answer or decline means the call is no longer missed
+        if (config == null || !stateManager.compareAndSetState(uuid, CallStateManager.CallState.INCOMING, CallStateManager.CallState.ENDED)) {
+            return;
+        }
+        Log.d("RingTimeoutScheduler", "Call rang out: " + uuid);
+        CallNotificationService.teardownCall(context, uuid, CallStateManager.CallState.INCOMING);
+        CallKitVoipPlugin.notifyCallTerminated(context, "callMissed", config);
+    }
+}
@@ -0,0 +1,206 @@
+package com.maximilien0405.callkitonesignal;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+import android.telecom.VideoProfile;
+import android.util.Log;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The optional self-managed Telecom backend (useConnectionService).
+ *
+ * Calls are still tracked by CallStateManager and shown by CallNotificationService; Telecom gets a Connection
+ * per call, so the system gives the call audio priority, routes headset buttons to it and arbitrates it
+ * against other calls. Every method is a no-op returning false when the backend is off.
+ */
+final class TelecomCalls {
+    private static final String TAG = "TelecomCalls";
+    private static final String ACCOUNT_ID = "CallkitOnesignal";
+    static final String EXTRA_UUID = "callkitUuid";
+
+    // uuid -> live connection
+    private static final ConcurrentHashMap<String, CallConnection> connections = new ConcurrentHashMap<>();
+    // Incoming calls handed to Telecom and waiting for their connection
+    private static final ConcurrentHashMap<String, CallPayload> pendingIncoming = new ConcurrentHashMap<>();
+    private static volatile boolean accountRegistered = false;
+
+    private TelecomCalls() {}
+
+    static boolean isEnabled(Context context) {
+        return CallKitConfig.isConnectionServiceEnabled(context);
+    }
+
+    static PhoneAccountHandle accountHandle(Context context) {
+        return new PhoneAccountHandle(new ComponentName(context, CallConnectionService.class), ACCOUNT_ID);
+    }
+
+    /**
+     * Register the self-managed phone account, once per process
+     */
+    static synchronized boolean registerAccount(Context context) {
+        if (accountRegistered) {
+            return true;
+        }
+        TelecomManager telecomManager = context.getSystemService(TelecomManager.class);
+        if (telecomManager == null) {
+            return false;
+        }
+        try {
+            CharSequence label = context.getApplicationInfo().loadLabel(context.getPackageManager());
+            PhoneAccount account = PhoneAccount.builder(accountHandle(context), label)
+                .setCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED | PhoneAccount.CAPABILITY_VIDEO_CALLING | PhoneAccount.CAPABILITY_SUPPORTS_VIDEO_CALLING)
+                .build();
+            telecomManager.registerPhoneAccount(account);
+            accountRegistered = true;
+            Log.d(TAG, "Self-managed phone account registered");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to register phone account: " + e.getMessage());
+        }
+        return accountRegistered;
+    }
+
+    /**
+     * Drop the phone account left behind by an earlier run with the backend on
+     */
+    static synchronized void unregisterAccount(Context context) {
+        TelecomManager telecomManager = context.getSystemService(TelecomManager.class);
+        if (telecomManager == null) {
+            return;
+        }
+        try {
+            telecomManager.unregisterPhoneAccount(accountHandle(context));
+            accountRegistered = false;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to unregister phone account: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hand an incoming call to Telecom; it rings once Telecom asks for the incoming call UI.
+     * Returns false if the backend is off or Telecom refused, in which case the caller rings it directly.
+     */
+    static boolean addIncomingCall(Context context, CallPayload payload) {
+        if (!isEnabled(context) || !registerAccount(context)) {
+            return false;
+        }
+        TelecomManager telecomManager = context.getSystemService(TelecomManager.class);
+        if (telecomManager == null) {
+            return false;
+        }
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_UUID, payload.uuid);
+        pendingIncoming.put(payload.uuid, payload);
+        try {
+            telecomManager.addNewIncomingCall(accountHandle(context), extras);
+            Log.d(TAG, "Incoming call handed to Telecom: " + payload.uuid);
+            return true;
+        } catch (Exception e) {
+            pendingIncoming.remove(payload.uuid);
+            Log.w(TAG, "Failed to add incoming call to Telecom: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Place an already registered outgoing call through Telecom
+     */
+    static boolean placeOutgoingCall(Context context, String uuid, String callerId, String media) {
+        if (!isEnabled(context) || !registerAccount(context)) {
+            return false;
+        }
+        TelecomManager telecomManager = context.getSystemService(TelecomManager.class);
+        if (telecomManager == null) {
+            return false;
+        }
+        Bundle callExtras = new Bundle();
+        callExtras.putString(EXTRA_UUID, uuid);
+        Bundle extras = new Bundle();
+        extras.putParcelable(TelecomManager.EXTRA_PHONE_ACCOUNT_HANDLE, accountHandle(context));
+        extras.putBundle(TelecomManager.EXTRA_OUTGOING_CALL_EXTRAS, callExtras);
+        extras.putInt(TelecomManager.EXTRA_START_CALL_WITH_VIDEO_STATE, "video".equals(media) ? VideoProfile.STATE_BIDIRECTIONAL : VideoProfile.STATE_AUDIO_ONLY);
+        try {
+            telecomManager.placeCall(Uri.fromParts(PhoneAccount.SCHEME_SIP, callerId != null ? callerId : uuid, null), extras);
+            Log.d(TAG, "Outgoing call placed through Telecom: " + uuid);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to place outgoing call through Telecom: " + e.getMessage());
+            return false;
+        }
+    }
+
+    static CallPayload takePendingIncoming(String uuid) {
+        return uuid != null ? pendingIncoming.remove(uuid) : null;
+    }
+
+    static void register(CallConnection connection) {
+        connections.put(connection.uuid, connection);
+    }
+
+    static CallConnection get(String uuid) {
+        return uuid != null ? connections.get(uuid) : null;
+    }
+
+    static boolean hasConnections() {
+        return !connections.isEmpty();
+    }
+
+    /**
+     * The call was answered outside Telecom (e.g. from the notification)
+     */
+    static void setActive(String uuid) {
+        CallConnection connection = get(uuid);
+        if (connection != null) {
+            connection.setActive();
+        }
+    }
+
+    /**
+     * Hold or resume a call's connection. Returns false if the call has none.
+     */
+    static boolean setHeld(String uuid, boolean held) {
+        CallConnection connection = get(uuid);
+        if (connection == null) {
+            return false;
+        }
+        if (held) {
+            connection.setOnHold();
+        } else {
+            connection.setActive();
+        }
+        return true;
+    }
+
+    /**
+     * The Telecom disconnect cause for a call that ended in the given state: a call that was still ringing
+     * rang out (missed), a declined one was rejected, anything else was hung up locally
+     */
+    static int disconnectCauseFor(CallStateManager.CallState endedIn) {
+        if (endedIn == CallStateManager.CallState.INCOMING) {
+            return DisconnectCause.MISSED;
+        } else if (endedIn == CallStateManager.CallState.DECLINED) {
+            return DisconnectCause.REJECTED;
+        }
+        return DisconnectCause.LOCAL;
+    }
+
+    /**
+     * Disconnect and destroy a call's connection, with a cause derived from the state the call ended in
+     */
+    static void disconnect(String uuid, CallStateManager.CallState endedIn) {
+        pendingIncoming.remove(uuid);
+        CallConnection connection = uuid != null ? connections.remove(uuid) : null;
+        if (connection == null) {
+            return;
+        }
+        int cause = disconnectCauseFor(endedIn);
+        connection.setDisconnected(new DisconnectCause(cause));
+        connection.destroy();
+        Log.d(TAG, "Connection disconnected (" + cause + "): " + uuid);
+    }
+}
@@ -0,0 +1,41 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Sample-size math for the avatar decode pipeline, checked on the host.
+ */
+public class AvatarDecoderTest {
+
+    private static final int TARGET = 192; // 64dp at xxhdpi
+
+    @Test
+    public void inSampleSize_keepsShorterSideAboveTarget() {
+        assertEquals(1, AvatarDecoder.calculateInSampleSize(192, 192, TARGET));
+        assertEquals(1, AvatarDecoder.calculateInSampleSize(383, 383, TARGET));
+        assertEquals(2, AvatarDecoder.calculateInSampleSize(384, 384, TARGET));
+        assertEquals(4, AvatarDecoder.calculateInSampleSize(1024, 1024, TARGET));
+        assertEquals(8, AvatarDecoder.calculateInSampleSize(4000, 3000, TARGET));
+    }
+
+    @Test
+    public void inSampleSize_handlesDegenerateInput() {
+        assertEquals(1, AvatarDecoder.calculateInSampleSize(0, 100, TARGET));
+        assertEquals(1, AvatarDecoder.calculateInSampleSize(100, 100, 0));
+        assertEquals(1, AvatarDecoder.calculateInSampleSize(50, 50, TARGET));
+    }
+
+    @Test
+    public void estimatedAllocation_staysSmallForTypicalAvatars() {
+        // 12MP phone photo: a full ARGB_8888 decode needs ~48MB
+        long full = 4000L * 3000L * 4;
+        long sampled = AvatarDecoder.estimateDecodedBytes(4000, 3000, TARGET, 2);
+        assertTrue("sampled decode should be under 400KB, was " + sampled, sampled < 400 * 1024);
+        assertTrue(sampled * 100 < full);
+
+        // 1024px square upload
+        assertEquals(256L * 256L * 2, AvatarDecoder.estimateDecodedBytes(1024, 1024, TARGET, 2));
+    }
+}
@@ -0,0 +1,38 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * UUIDv7 layout and payload uuid validation.
+ */
+public class CallIdsTest {
+
+    @Test
+    public void newUuid_isVersion7WithRfcVariant() {
+        UUID uuid = CallIds.newUuid(1_700_000_000_000L);
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        assertEquals(1_700_000_000_000L, uuid.getMostSignificantBits() >>> 16);
+    }
+
+    @Test
+    public void newUuid_sortsByCreationTime() {
+        String earlier = CallIds.newUuid(1_700_000_000_000L).toString();
+        String later = CallIds.newUuid(1_700_000_000_001L).toString();
+        assertTrue(earlier.compareTo(later) < 0);
+        assertNotNull(CallIds.normalize(CallIds.newUuid()));
+    }
+
+    @Test
+    public void normalize_acceptsOnlyCanonicalUuids() {
+        assertEquals("0190a5c2-7d3e-7abc-8def-0123456789ab", CallIds.normalize("0190A5C2-7D3E-7ABC-8DEF-0123456789AB"));
+        assertNull(CallIds.normalize(null));
+        assertNull(CallIds.normalize(""));
+        assertNull(CallIds.normalize("call-42"));
+        assertNull(CallIds.normalize("0190a5c27d3e7abc8def0123456789ab"));
+        assertNull(CallIds.normalize("0190a5c2-7d3e-7abc-8def-0123456789ag"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * String encoding of call journal records.
+ */
+public class CallJournalTest {
+
+    @Test
+    public void string_roundTrips() {
+        assertEquals("Zoë 📞", roundTrip("Zoë 📞"));
+        assertEquals("", roundTrip(""));
+        assertNull(roundTrip(null));
+    }
+
+    @Test
+    public void longString_isCutOnCharacterBoundary() {
+        // One ASCII byte, then 4-byte characters, so the limit falls inside a character
+        StringBuilder value = new StringBuilder("a");
+        while (value.length() < CallJournal.MAX_STRING_BYTES) {
+            value.append("📞");
+        }
+        String read = roundTrip(value.toString());
+        byte[] bytes = read.getBytes(StandardCharsets.UTF_8);
+        assertTrue(bytes.length <= CallJournal.MAX_STRING_BYTES);
+        assertTrue(bytes.length > CallJournal.MAX_STRING_BYTES - 4);
+        assertTrue(value.toString().startsWith(read));
+        assertFalse(read.contains("\uFFFD"));
+    }
+
+    @Test
+    public void stringAtLimit_isKeptWhole() {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < CallJournal.MAX_STRING_BYTES / 2) {
+            value.append("é");
+        }
+        assertEquals(value.toString(), roundTrip(value.toString()));
+    }
+
+    private static String roundTrip(String value) {
+        ByteBuffer buffer = ByteBuffer.allocate(CallJournal.MAX_STRING_BYTES + 16);
+        CallJournal.writeString(buffer, value);
+        buffer.flip();
+        return CallJournal.readString(buffer);
+    }
+}
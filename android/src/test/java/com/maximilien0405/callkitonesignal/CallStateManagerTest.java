@@ -0,0 +1,230 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import com.maximilien0405.callkitonesignal.CallStateManager.CallState;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Transition table, compare-and-set races, caller index and per-state eviction of the call registry.
+ */
+public class CallStateManagerTest {
+
+    private final CallStateManager manager = CallStateManager.getInstance();
+    private final long[] defaultTtls = new long[CallState.values().length];
+
+    @Before
+    public void setUp() {
+        manager.clearAllCalls();
+        for (CallState state : CallState.values()) {
+            defaultTtls[state.ordinal()] = manager.getStateTtl(state);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        manager.clearAllCalls();
+        for (CallState state : CallState.values()) {
+            manager.setStateTtl(state, defaultTtls[state.ordinal()]);
+        }
+    }
+
+    @Test
+    public void canTransitionTo_matchesTable() {
+        assertAllowed(CallState.INCOMING, CallState.ANSWERED, CallState.DECLINED, CallState.ENDED);
+        assertAllowed(CallState.OUTGOING, CallState.ANSWERED, CallState.ENDED);
+        assertAllowed(CallState.ANSWERED, CallState.ENDED);
+        assertAllowed(CallState.DECLINED, CallState.ENDED);
+        assertAllowed(CallState.ENDED);
+    }
+
+    @Test
+    public void terminalState_rejectsEveryTransition() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.transitionTo("a", CallState.ENDED));
+        for (CallState next : CallState.values()) {
+            assertFalse(manager.transitionTo("a", next));
+            assertFalse(manager.compareAndSetState("a", CallState.ENDED, next));
+        }
+        assertEquals(CallState.ENDED, manager.getState("a"));
+    }
+
+    @Test
+    public void endCall_removesCallAlreadyClaimedAsEnded() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.compareAndSetState("a", CallState.INCOMING, CallState.ENDED));
+        manager.endCall("a");
+        assertNull(manager.getCallConfig("a"));
+        assertTrue(manager.getUUIDsByCallerId("caller").isEmpty());
+    }
+
+    @Test
+    public void transition_updatesStateAndTimeTogether() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        CallStateManager.CallConfig config = manager.getCallConfig("a");
+        CallStateManager.CallConfig.Transition registered = config.getTransition();
+        assertTrue(manager.markCallAnswered("a"));
+        CallStateManager.CallConfig.Transition answered = config.getTransition();
+        assertNotSame(registered, answered);
+        assertEquals(CallState.ANSWERED, answered.state);
+        assertTrue(answered.at >= registered.at);
+        assertEquals(answered.at, config.getLastTransitionAt());
+    }
+
+    @Test
+    public void declinedCall_canOnlyEnd() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.markCallDeclined("a"));
+        assertFalse(manager.markCallAnswered("a"));
+        assertFalse(manager.markCallDeclined("a"));
+        assertEquals(CallState.DECLINED, manager.getState("a"));
+        assertTrue(manager.transitionTo("a", CallState.ENDED));
+    }
+
+    @Test
+    public void compareAndSet_failsWhenStateMovedOn() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.compareAndSetState("a", CallState.INCOMING, CallState.DECLINED));
+        assertFalse(manager.compareAndSetState("a", CallState.INCOMING, CallState.ANSWERED));
+        assertEquals(CallState.DECLINED, manager.getState("a"));
+    }
+
+    @Test
+    public void compareAndSet_rejectsDisallowedTransitionAndUnknownCall() {
+        manager.registerOutgoingCall("a", "caller", "Alice", "audio");
+        assertFalse(manager.compareAndSetState("a", CallState.OUTGOING, CallState.DECLINED));
+        assertFalse(manager.compareAndSetState("a", CallState.OUTGOING, CallState.OUTGOING));
+        assertFalse(manager.compareAndSetState("missing", CallState.INCOMING, CallState.ANSWERED));
+        assertFalse(manager.compareAndSetState(null, CallState.INCOMING, CallState.ANSWERED));
+        assertEquals(CallState.OUTGOING, manager.getState("a"));
+    }
+
+    @Test
+    public void answerAndDeclineRace_exactlyOneWins() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            String uuid = "race-" + round;
+            manager.registerIncomingCall(uuid, "caller", "Alice", "audio");
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger winners = new AtomicInteger();
+            Thread answer = new Thread(() -> {
+                awaitQuietly(start);
+                if (manager.compareAndSetState(uuid, CallState.INCOMING, CallState.ANSWERED)) {
+                    winners.incrementAndGet();
+                }
+            });
+            Thread decline = new Thread(() -> {
+                awaitQuietly(start);
+                if (manager.compareAndSetState(uuid, CallState.INCOMING, CallState.DECLINED)) {
+                    winners.incrementAndGet();
+                }
+            });
+            answer.start();
+            decline.start();
+            start.countDown();
+            answer.join();
+            decline.join();
+            assertEquals(1, winners.get());
+            CallState state = manager.getState(uuid);
+            assertTrue(state == CallState.ANSWERED || state == CallState.DECLINED);
+            manager.endCall(uuid);
+        }
+    }
+
+    @Test
+    public void callerIndex_tracksRegisterAndEnd() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        manager.registerIncomingCall("b", "caller", "Alice", "video");
+        manager.registerOutgoingCall("c", "other", "Bob", "audio");
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), manager.getUUIDsByCallerId("caller"));
+        assertEquals(Collections.singleton("c"), manager.getUUIDsByCallerId("other"));
+
+        manager.endCall("a");
+        assertEquals(Collections.singleton("b"), manager.getUUIDsByCallerId("caller"));
+        assertEquals("b", manager.getUUIDByCallerId("caller"));
+
+        manager.endCall("b");
+        assertTrue(manager.getUUIDsByCallerId("caller").isEmpty());
+        assertNull(manager.getCallConfigByCallerId("caller"));
+    }
+
+    @Test
+    public void callerIndex_movesWhenUuidIsReRegisteredUnderAnotherCaller() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        manager.registerIncomingCall("a", "other", "Bob", "audio");
+        assertTrue(manager.getUUIDsByCallerId("caller").isEmpty());
+        assertEquals(Collections.singleton("a"), manager.getUUIDsByCallerId("other"));
+        assertEquals(1, manager.getActiveCallCount());
+    }
+
+    @Test
+    public void clearAllCalls_emptiesIndex() {
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        manager.clearAllCalls();
+        assertTrue(manager.getUUIDsByCallerId("caller").isEmpty());
+        assertFalse(manager.hasActiveCalls());
+    }
+
+    @Test
+    public void eviction_usesTheTtlOfEachState() {
+        manager.setStateTtl(CallState.INCOMING, 1_000);
+        manager.setStateTtl(CallState.ANSWERED, 5_000);
+        manager.registerIncomingCall("ringing", "caller", "Alice", "audio");
+        manager.registerIncomingCall("answered", "other", "Bob", "audio");
+        assertTrue(manager.markCallAnswered("answered"));
+        long since = Math.max(manager.getCallConfig("ringing").getLastTransitionAt(),
+            manager.getCallConfig("answered").getLastTransitionAt());
+
+        manager.evictExpiredCalls(since + 1_000);
+        assertNotNull(manager.getCallConfig("ringing"));
+
+        manager.evictExpiredCalls(since + 1_001);
+        assertNull(manager.getCallConfig("ringing"));
+        assertTrue(manager.getUUIDsByCallerId("caller").isEmpty());
+        assertNotNull(manager.getCallConfig("answered"));
+
+        manager.evictExpiredCalls(since + 5_001);
+        assertNull(manager.getCallConfig("answered"));
+        assertFalse(manager.hasActiveCalls());
+    }
+
+    @Test
+    public void answeredCall_isNotEvictedByDefault() {
+        assertTrue(manager.getStateTtl(CallState.ANSWERED) <= 0);
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.markCallAnswered("a"));
+        manager.evictExpiredCalls(manager.getCallConfig("a").getLastTransitionAt() + 24L * 60 * 60 * 1000);
+        assertEquals(CallState.ANSWERED, manager.getState("a"));
+    }
+
+    @Test
+    public void eviction_disabledByNonPositiveTtl() {
+        manager.setStateTtl(CallState.OUTGOING, 0);
+        manager.registerOutgoingCall("a", "caller", "Alice", "audio");
+        manager.evictExpiredCalls(manager.getCallConfig("a").getLastTransitionAt() + 365L * 24 * 60 * 60 * 1000);
+        assertEquals(CallState.OUTGOING, manager.getState("a"));
+    }
+
+    private static void assertAllowed(CallState from, CallState... allowed) {
+        Set<CallState> expected = allowed.length == 0 ? EnumSet.noneOf(CallState.class) : EnumSet.copyOf(Arrays.asList(allowed));
+        for (CallState next : CallState.values()) {
+            assertEquals(from + " -> " + next, expected.contains(next), from.canTransitionTo(next));
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InitialsAvatarRendererTest {
+
+    @Test
+    public void initials_useFirstAndLastWordOfUsername() {
+        assertEquals("JD", InitialsAvatarRenderer.initialsFor("john doe", "42"));
+        assertEquals("JS", InitialsAvatarRenderer.initialsFor("  Jane Mary Smith ", "42"));
+        assertEquals("M", InitialsAvatarRenderer.initialsFor("Max", "42"));
+        assertEquals("\u00C9", InitialsAvatarRenderer.initialsFor("\u00E9lodie", null));
+    }
+
+    @Test
+    public void initials_fallBackToCallerIdThenPlaceholder() {
+        assertEquals("4", InitialsAvatarRenderer.initialsFor("", "42"));
+        assertEquals("A", InitialsAvatarRenderer.initialsFor(null, "alice@example.com"));
+        assertEquals("?", InitialsAvatarRenderer.initialsFor(null, null));
+        assertEquals("?", InitialsAvatarRenderer.initialsFor("   ", "+"));
+    }
+
+    @Test
+    public void color_isDeterministicPerCaller() {
+        assertEquals(InitialsAvatarRenderer.colorFor("caller-1"), InitialsAvatarRenderer.colorFor("caller-1"));
+        assertEquals(InitialsAvatarRenderer.colorFor(null), InitialsAvatarRenderer.colorFor(""));
+        assertEquals(0xFF, InitialsAvatarRenderer.colorFor("caller-2") >>> 24);
+    }
+}
@@ -0,0 +1,55 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Key selection, window expiry and bounding of the call push dedup cache.
+ */
+public class PushDeduplicatorTest {
+
+    @Test
+    public void key_prefersCallIdThenTimestampThenNotificationId() {
+        assertEquals("id:abc", PushDeduplicator.keyFor("abc", "caller", "123", "os-1"));
+        assertEquals("ts:caller:123", PushDeduplicator.keyFor(null, "caller", "123", "os-1"));
+        assertEquals("os:caller:os-1", PushDeduplicator.keyFor("", "caller", "", "os-1"));
+        assertNull(PushDeduplicator.keyFor(null, "caller", null, null));
+        assertNull(PushDeduplicator.keyFor(null, null, "123", "os-1"));
+    }
+
+    @Test
+    public void redeliveryInsideWindow_isDuplicate() {
+        PushDeduplicator dedup = new PushDeduplicator();
+        assertFalse(dedup.isDuplicate("id:abc", 1_000));
+        assertTrue(dedup.isDuplicate("id:abc", 1_000 + PushDeduplicator.WINDOW_MILLIS - 1));
+        assertFalse(dedup.isDuplicate("id:other", 2_000));
+    }
+
+    @Test
+    public void redeliveryAfterWindow_ringsAgain() {
+        PushDeduplicator dedup = new PushDeduplicator();
+        assertFalse(dedup.isDuplicate("id:abc", 1_000));
+        assertFalse(dedup.isDuplicate("id:abc", 1_000 + PushDeduplicator.WINDOW_MILLIS));
+    }
+
+    @Test
+    public void nullKey_isNeverDuplicate() {
+        PushDeduplicator dedup = new PushDeduplicator();
+        assertFalse(dedup.isDuplicate(null, 1_000));
+        assertFalse(dedup.isDuplicate(null, 1_000));
+        assertEquals(0, dedup.size());
+    }
+
+    @Test
+    public void cache_isBounded() {
+        PushDeduplicator dedup = new PushDeduplicator();
+        for (int i = 0; i < PushDeduplicator.MAX_ENTRIES * 2; i++) {
+            assertFalse(dedup.isDuplicate("id:" + i, 1_000 + i));
+        }
+        assertEquals(PushDeduplicator.MAX_ENTRIES, dedup.size());
+        // The oldest keys were evicted, the newest are still remembered
+        assertFalse(dedup.isDuplicate("id:0", 2_000));
+        assertTrue(dedup.isDuplicate("id:" + (PushDeduplicator.MAX_ENTRIES * 2 - 1), 2_000));
+    }
+}
@@ -0,0 +1,42 @@
+package com.maximilien0405.callkitonesignal;
+
+import static org.junit.Assert.*;
+
+import android.telecom.DisconnectCause;
+import com.maximilien0405.callkitonesignal.CallStateManager.CallState;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Telecom disconnect causes derived from the state a call ended in.
+ */
+public class TelecomCallsTest {
+
+    @After
+    public void tearDown() {
+        CallStateManager.getInstance().clearAllCalls();
+    }
+
+    @Test
+    public void timedOutCall_isMissed() {
+        // RingTimeoutScheduler claims the call (INCOMING -> ENDED) before tearing it down with the state it rang in
+        CallStateManager manager = CallStateManager.getInstance();
+        manager.registerIncomingCall("a", "caller", "Alice", "audio");
+        assertTrue(manager.compareAndSetState("a", CallState.INCOMING, CallState.ENDED));
+        assertEquals(DisconnectCause.MISSED, TelecomCalls.disconnectCauseFor(CallState.INCOMING));
+        assertNotEquals(DisconnectCause.MISSED, TelecomCalls.disconnectCauseFor(manager.getState("a")));
+    }
+
+    @Test
+    public void declinedCall_isRejected() {
+        assertEquals(DisconnectCause.REJECTED, TelecomCalls.disconnectCauseFor(CallState.DECLINED));
+    }
+
+    @Test
+    public void otherCalls_areLocal() {
+        assertEquals(DisconnectCause.LOCAL, TelecomCalls.disconnectCauseFor(CallState.ANSWERED));
+        assertEquals(DisconnectCause.LOCAL, TelecomCalls.disconnectCauseFor(CallState.OUTGOING));
+        assertEquals(DisconnectCause.LOCAL, TelecomCalls.disconnectCauseFor(CallState.ENDED));
+        assertEquals(DisconnectCause.LOCAL, TelecomCalls.disconnectCauseFor(null));
+    }
+}
@@ -1,5 +1,73 @@
 import type { PluginListenerHandle } from '@capacitor/core';
 
+/**
+ * Keys read from `plugins.CallkitOnesignal` in the Capacitor config.
+ */
+export interface CallkitOnesignalConfig {
+  /**
+   * Seconds an incoming call may ring before it is evicted and reported as `callMissed`. (Android only)
+   * Zero or less disables eviction for this state.
+   *
+   * @default 60
+   */
+  incomingCallTtl?: number;
+
+  /**
+   * Seconds an unanswered outgoing call is kept before it is evicted and reported as `callEnded`. (Android only)
+   *
+   * @default 120
+   */
+  outgoingCallTtl?: number;
+
+  /**
+   * Seconds an answered call is kept without `endCall` before it is evicted and reported as `callEnded`. (Android only)
+   * Zero or less, the default, never evicts answered calls, since a real call can last for hours.
+   *
+   * @default 0
+   */
+  answeredCallTtl?: number;
+
+  /**
+   * Seconds a declined call is kept before it is evicted. (Android only)
+   *
+   * @default 10
+   */
+  declinedCallTtl?: number;
+
+  /**
+   * What an incoming call push does while the app is not running. (Android only)
+   * `launchApp` starts the app alongside the ring; `serviceOnly` only rings, and the app is started
+   * when the user answers, which then receives `callAnswered` once `setAppFullyLoaded` is called.
+   *
+   * @default "launchApp"
+   */
+  coldStartMode?: 'launchApp' | 'serviceOnly';
+
+  /**
+   * Load the WebView in the background while an incoming call rings and the app is not running, so answering
+   * a cold-start call reaches `callAnswered` sooner. Mostly useful with `coldStartMode: 'serviceOnly'`. (Android only)
+   *
+   * @default false
+   */
+  prewarmOnRing?: boolean;
+
+  /**
+   * Coalesce bursts of `audioRouteChanged` events: only the route the system settles on after this many
+   * milliseconds is emitted, and only if it differs from the last one emitted. 0 emits every change. (Android only)
+   *
+   * @default 0
+   */
+  audioRouteCoalesceMs?: number;
+
+  /**
+   * Also run calls through a self-managed Telecom `ConnectionService`, so the system gives them audio priority,
+   * routes Bluetooth headset buttons to them and arbitrates them against cellular calls. (Android only)
+   *
+   * @default false
+   */
+  useConnectionService?: boolean;
+}
+
 export interface CallkitOnesignalPlugin {
   /**
    * Get the VoIP push token (iOS only)
@@ -52,6 +120,14 @@ export interface CallkitOnesignalPlugin {
     listenerFunc: (callData: CallData) => void
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
 
+  /**
+   * Listen for missed call events (when an incoming call rings out without being answered or declined) (Android only)
+   */
+  addListener(
+    eventName: 'callMissed',
+    listenerFunc: (callData: CallData) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
   /**
    * Check if the app was launched or resumed from a VoIP call.
    * Returns true if the app was launched from a VoIP call, has pending events, or has an ongoing call.
@@ -63,6 +139,12 @@ export interface CallkitOnesignalPlugin {
    */
   replayPendingEvents(): Promise<void>;
 
+  /**
+   * Drain the pending events and return them in a single call, oldest first, instead of re-emitting each one
+   * through its listener. (Android only)
+   */
+  getPendingEvents(): Promise<{ events: PendingEvent[] }>;
+
   /**
    * Programmatically show the CallKit VoIP UI (simulate an incoming call).
    * @param options.callerId Unique caller identifier
@@ -77,9 +159,10 @@ export interface CallkitOnesignalPlugin {
   prepareAudioSessionForCall(): Promise<void>;
 
   /**
-   * End all current CallKit calls (iOS only). Also deactivates AVAudioSession.
+   * End all current CallKit calls. Also deactivates AVAudioSession.
+   * On Android, pass `uuid` to end only that call and leave other calls' notifications in place.
    */
-  endCall(): Promise<void>;
+  endCall(options?: { uuid?: string }): Promise<void>;
 
   /**
    * Update the UI and CallKit state for an ongoing call (audio <-> video).
@@ -95,11 +178,31 @@ export interface CallkitOnesignalPlugin {
   setAudioOutput(options: { route: AudioOutputRoute }): Promise<void>;
 
   /**
-   * Set the mute state for the current call and update CallKit UI. (iOS only)
+   * Set the mute state for the current call and update CallKit UI. (iOS & Android)
    * @param options.isMuted true to mute, false to unmute
    */
   setMuted(options: { isMuted: boolean }): Promise<void>;
 
+  /**
+   * Put an answered call on hold. With `useConnectionService` the system is told as well. (Android only)
+   * @param options.uuid The call to hold; defaults to the answered call
+   */
+  hold(options?: { uuid?: string }): Promise<void>;
+
+  /**
+   * Take a held call off hold. (Android only)
+   * @param options.uuid The call to resume; defaults to the answered call
+   */
+  unhold(options?: { uuid?: string }): Promise<void>;
+
+  /**
+   * Listen for hold state changes, from `hold`/`unhold` or from the system with `useConnectionService`. (Android only)
+   */
+  addListener(
+    eventName: 'holdStateChanged',
+    listenerFunc: (data: HoldStateData) => void
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
   /**
    * Listen for audio route changes (speaker/earpiece/headphones/bluetooth). (iOS & Android)
    */
@@ -109,7 +212,9 @@ export interface CallkitOnesignalPlugin {
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
 
   /**
-   * Listen for mute state changes from CallKit UI. (iOS only)
+   * Listen for mute state changes. (iOS & Android)
+   * On iOS they come from the CallKit UI. On Android they come from `setMuted`, the ongoing call notification, the system
+   * (with `useConnectionService`) or another app muting the microphone. Only actual changes are emitted.
    */
   addListener(
     eventName: 'muteStateChanged',
@@ -126,6 +231,15 @@ export interface CallkitOnesignalPlugin {
    * Call this after setting up all event listeners.
    */
   setAppFullyLoaded(): Promise<void>;
+
+  /**
+   * Timing marks recorded for a call, in milliseconds since its push arrived:
+   * `pushReceived`, `ringPosted`, `webViewWarm`, `answerTapped`, `bridgeReady`, `listenersReady`. (Android only)
+   * `answerTapped` is when the answer action started the app (or Telecom answered), `bridgeReady` when the answer
+   * reached the plugin on the bridge, and `listenersReady` when `setAppFullyLoaded` was called.
+   * @param options.uuid The call to report; defaults to the most recent call
+   */
+  getCallTimings(options?: { uuid?: string }): Promise<CallTimings>;
 }
 
 export type CallType = 'video' | 'audio';
@@ -152,11 +266,32 @@ export interface CallData {
   uuid?: string;
 }
 
+export interface PendingEvent {
+  /** Listener event name, e.g. `incoming` or `callAnswered` */
+  eventName: string;
+  /** The payload the listener would have received */
+  data: CallData;
+}
+
+export interface CallTimings {
+  /** The call the marks belong to, if any call was recorded */
+  uuid?: string;
+  /** Milliseconds since the push arrived, keyed by mark name; only marks that were reached are present */
+  marks: { [mark: string]: number };
+}
+
 export interface AudioRouteData {
   /** Current audio output route */
   route: AudioOutputRoute;
 }
 
+export interface HoldStateData {
+  /** The call whose hold state changed */
+  uuid: string;
+  /** Whether the call is now on hold */
+  isOnHold: boolean;
+}
+
 export interface MuteStateData {
   /** Whether the call is currently muted */
   isMuted: boolean;
@@ -1,6 +1,6 @@
 import { WebPlugin, PluginListenerHandle } from '@capacitor/core';
 
-import type { CallkitOnesignalPlugin, CallToken } from './definitions';
+import type { CallkitOnesignalPlugin, CallTimings, CallToken, PendingEvent } from './definitions';
 
 export class CallkitOnesignalWeb extends WebPlugin implements CallkitOnesignalPlugin {
   async getToken(): Promise<CallToken> {
@@ -15,6 +15,10 @@ export class CallkitOnesignalWeb extends WebPlugin implements CallkitOnesignalPl
     throw new Error('replayPendingEvents() is not available on web platform');
   }
 
+  async getPendingEvents(): Promise<{ events: PendingEvent[] }> {
+    throw new Error('getPendingEvents() is only available on Android');
+  }
+
   async wasLaunchedFromVoIP(): Promise<{ value: boolean }> {
     throw new Error('wasLaunchedFromVoIP() is not available on web platform');
   }
@@ -27,7 +31,7 @@ export class CallkitOnesignalWeb extends WebPlugin implements CallkitOnesignalPl
     throw new Error('prepareAudioSessionForCall() is not available on web platform');
   }
 
-  async endCall(): Promise<void> {
+  async endCall(_options?: { uuid?: string }): Promise<void> {
     throw new Error('endCall() is not available on web platform');
   }
 
@@ -40,7 +44,15 @@ export class CallkitOnesignalWeb extends WebPlugin implements CallkitOnesignalPl
   }
 
   async setMuted(_options: { isMuted: boolean }): Promise<void> {
-    throw new Error('setMuted() is only available on iOS');
+    throw new Error('setMuted() is only available on iOS and Android');
+  }
+
+  async hold(_options?: { uuid?: string }): Promise<void> {
+    throw new Error('hold() is only available on Android');
+  }
+
+  async unhold(_options?: { uuid?: string }): Promise<void> {
+    throw new Error('unhold() is only available on Android');
   }
 
   async isAppInForeground(): Promise<{ value: boolean }> {
@@ -52,6 +64,10 @@ export class CallkitOnesignalWeb extends WebPlugin implements CallkitOnesignalPl
     throw new Error('setAppFullyLoaded() is not available on web platform');
   }
 
+  async getCallTimings(_options?: { uuid?: string }): Promise<CallTimings> {
+    throw new Error('getCallTimings() is only available on Android');
+  }
+
   addListener(_eventName: string, _callback: (data: any) => void): Promise<PluginListenerHandle> & PluginListenerHandle {
     const handle: PluginListenerHandle = {
       remove: async () => {